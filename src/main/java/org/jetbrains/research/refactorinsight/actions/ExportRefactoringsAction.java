@@ -0,0 +1,69 @@
+package org.jetbrains.research.refactorinsight.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileChooser.FileChooserFactory;
+import com.intellij.openapi.fileChooser.FileSaverDescriptor;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFileWrapper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.RefactorInsightBundle;
+import org.jetbrains.research.refactorinsight.services.MiningService;
+import org.jetbrains.research.refactorinsight.storage.RefactoringsBundle;
+
+/**
+ * Represents the `Export Refactorings` action.
+ * Writes the refactorings mined in the current project to a bundle file,
+ * which can be imported in another clone of the repository by {@link ImportRefactoringsAction}.
+ */
+public class ExportRefactoringsAction extends AnAction {
+
+  @Override
+  public void update(@NotNull AnActionEvent e) {
+    e.getPresentation().setEnabled(e.getProject() != null);
+  }
+
+  @Override
+  public void actionPerformed(@NotNull AnActionEvent e) {
+    Project project = e.getProject();
+    if (project == null) {
+      return;
+    }
+    FileSaverDescriptor descriptor = new FileSaverDescriptor(RefactorInsightBundle.message("export.title"),
+        RefactorInsightBundle.message("export.description"), RefactoringsBundle.EXTENSION);
+    VirtualFileWrapper wrapper = FileChooserFactory.getInstance().createSaveFileDialog(descriptor, project)
+        .save(null, project.getName() + "." + RefactoringsBundle.EXTENSION);
+    if (wrapper == null) {
+      return;
+    }
+    File file = wrapper.getFile();
+    ProgressManager.getInstance()
+        .run(new Task.Backgroundable(project, RefactorInsightBundle.message("export.progress"), false) {
+          @Override
+          public void run(@NotNull ProgressIndicator indicator) {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+              int exported = MiningService.getInstance(project).exportBundle(out);
+              ApplicationManager.getApplication().invokeLater(() -> Messages.showInfoMessage(project,
+                  RefactorInsightBundle.message("export.done", exported, file.getName()),
+                  RefactorInsightBundle.message("name")));
+            } catch (IOException ex) {
+              ApplicationManager.getApplication().invokeLater(() -> Messages.showErrorDialog(project,
+                  RefactorInsightBundle.message("export.failed", ex.getMessage()),
+                  RefactorInsightBundle.message("name")));
+            }
+          }
+        });
+  }
+}
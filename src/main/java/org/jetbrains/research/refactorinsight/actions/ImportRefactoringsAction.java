@@ -0,0 +1,60 @@
+package org.jetbrains.research.refactorinsight.actions;
+
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileChooser.FileChooser;
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.RefactorInsightBundle;
+import org.jetbrains.research.refactorinsight.services.MiningService;
+import org.jetbrains.research.refactorinsight.storage.RefactoringsBundle;
+
+/**
+ * Represents the `Import Refactorings` action.
+ * Merges a bundle written by {@link ExportRefactoringsAction} into the refactorings of the current project.
+ * Results mined locally are kept, see {@link MiningService#importBundle}.
+ */
+public class ImportRefactoringsAction extends AnAction {
+
+  @Override
+  public void update(@NotNull AnActionEvent e) {
+    e.getPresentation().setEnabled(e.getProject() != null);
+  }
+
+  @Override
+  public void actionPerformed(@NotNull AnActionEvent e) {
+    Project project = e.getProject();
+    if (project == null) {
+      return;
+    }
+    FileChooser.chooseFile(FileChooserDescriptorFactory.createSingleFileDescriptor(RefactoringsBundle.EXTENSION),
+        project, null, file -> ProgressManager.getInstance()
+            .run(new Task.Backgroundable(project, RefactorInsightBundle.message("import.progress"), false) {
+              @Override
+              public void run(@NotNull ProgressIndicator indicator) {
+                try (InputStream in = new BufferedInputStream(file.getInputStream())) {
+                  RefactoringsBundle.Summary summary = MiningService.getInstance(project).importBundle(in);
+                  ApplicationManager.getApplication().invokeLater(() -> Messages.showInfoMessage(project,
+                      RefactorInsightBundle.message("import.done", summary.getImported(), summary.getKept(),
+                          summary.getOutdated() + summary.getDamaged()),
+                      RefactorInsightBundle.message("name")));
+                } catch (IOException ex) {
+                  ApplicationManager.getApplication().invokeLater(() -> Messages.showErrorDialog(project,
+                      RefactorInsightBundle.message("import.failed", ex.getMessage()),
+                      RefactorInsightBundle.message("name")));
+                }
+              }
+            }));
+  }
+}
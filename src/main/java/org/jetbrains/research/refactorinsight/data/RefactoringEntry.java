@@ -8,7 +8,6 @@ import static org.jetbrains.research.refactorinsight.adapters.RefactoringType.MO
 import static org.jetbrains.research.refactorinsight.adapters.RefactoringType.PULL_UP_ATTRIBUTE;
 import static org.jetbrains.research.refactorinsight.adapters.RefactoringType.PULL_UP_OPERATION;
 
-import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Pair;
 
 import java.io.Serializable;
@@ -20,6 +19,7 @@ import java.util.Objects;
 import java.util.stream.Collectors;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.utils.ContentProvider;
 import org.jetbrains.research.refactorinsight.utils.StringUtils;
 import org.jetbrains.research.refactorinsight.utils.Utils;
 import org.refactoringminer.api.Refactoring;
@@ -82,13 +82,14 @@ public class RefactoringEntry implements Serializable {
    * @param commitHash       current commit.
    * @param commitParentHash parent commit hash.
    * @param commitTimestamp  commit timestamp.
+   * @param contents         provider of the file revisions used to correct the line markings.
    * @return new refactoring entry.
    */
   public static RefactoringEntry convertJavaRefactorings(List<Refactoring> refactorings,
                                                          String commitHash,
                                                          String commitParentHash,
                                                          long commitTimestamp,
-                                                         Project project) {
+                                                         ContentProvider contents) {
     RefactoringEntry entry =
         new RefactoringEntry(commitHash, commitParentHash, commitTimestamp);
 
@@ -98,7 +99,7 @@ public class RefactoringEntry implements Serializable {
 
     entry.setRefactorings(infos).combineRelated();
 
-    entry.refactorings.forEach(info -> Utils.check(info, project));
+    entry.refactorings.forEach(info -> Utils.check(info, contents));
     return entry;
   }
 
@@ -109,6 +110,7 @@ public class RefactoringEntry implements Serializable {
    * @param commitHash       current commit.
    * @param commitParentHash parent commit hash.
    * @param commitTimestamp  commit timestamp.
+   * @param contents         provider of the file revisions used to correct the line markings.
    * @return new refactoring entry.
    */
   public static RefactoringEntry convertKotlinRefactorings(
@@ -116,7 +118,7 @@ public class RefactoringEntry implements Serializable {
       String commitHash,
       String commitParentHash,
       long commitTimestamp,
-      Project project) {
+      ContentProvider contents) {
     RefactoringEntry entry =
         new RefactoringEntry(commitHash, commitParentHash, commitTimestamp);
 
@@ -126,7 +128,7 @@ public class RefactoringEntry implements Serializable {
 
     entry.setRefactorings(infos).combineRelated();
 
-    entry.refactorings.forEach(info -> Utils.check(info, project));
+    entry.refactorings.forEach(info -> Utils.check(info, contents));
     return entry;
   }
 
@@ -274,7 +276,13 @@ public class RefactoringEntry implements Serializable {
     return refactorings;
   }
 
+  /**
+   * Adds refactorings detected separately for the same commit, e.g. by another detector.
+   *
+   * @param refactorings to be added.
+   */
   public void addRefactorings(List<RefactoringInfo> refactorings) {
+    refactorings.forEach(info -> info.setEntry(this));
     this.refactorings.addAll(refactorings);
   }
 
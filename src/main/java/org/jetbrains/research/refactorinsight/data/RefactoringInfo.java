@@ -26,6 +26,7 @@ import org.jetbrains.research.refactorinsight.data.diff.MoreSidedDiffRequestGene
 import org.jetbrains.research.refactorinsight.data.diff.ThreeSidedDiffRequestGenerator;
 import org.jetbrains.research.refactorinsight.data.diff.TwoSidedDiffRequestGenerator;
 import org.jetbrains.research.refactorinsight.folding.FoldingDescriptor;
+import org.jetbrains.research.refactorinsight.utils.LineIndex;
 import org.jetbrains.research.refactorinsight.utils.StringUtils;
 
 /**
@@ -134,6 +135,10 @@ public class RefactoringInfo {
     );
   }
 
+  public DiffRequestGenerator getRequestGenerator() {
+    return requestGenerator;
+  }
+
   public RefactoringInfo setRequestGenerator(DiffRequestGenerator requestGenerator) {
     this.requestGenerator = requestGenerator;
     return this;
@@ -509,11 +514,11 @@ public class RefactoringInfo {
   /**
    * Corrects lines if necessary.
    *
-   * @param before text left window
-   * @param mid    text mid window
-   * @param after  text right window
+   * @param before line index of the text of the left window
+   * @param mid    line index of the text of the mid window
+   * @param after  line index of the text of the right window
    */
-  public void correctLines(String before, String mid, String after) {
+  public void correctLines(LineIndex before, LineIndex mid, LineIndex after) {
     boolean skipAnnotationsLeft = true;
     boolean skipAnnotationsRight = true;
     if (type.getName().matches("Add\\s(\\w)*\\sAnnotation")) {
@@ -526,7 +531,7 @@ public class RefactoringInfo {
     requestGenerator.correct(before, mid, after, skipAnnotationsLeft, true, skipAnnotationsRight);
   }
 
-  public void correctMoreSidedLines(List<String> befores, String after) {
+  public void correctMoreSidedLines(List<LineIndex> befores, LineIndex after) {
     ((MoreSidedDiffRequestGenerator) requestGenerator).correct(befores, after, moreSidedLeftPaths,
                                                                true, false, true);
   }
@@ -14,6 +14,7 @@ import org.jetbrains.research.refactorinsight.adapters.CodeRange;
 import org.jetbrains.research.refactorinsight.adapters.LocationInfo;
 import org.jetbrains.research.refactorinsight.data.diff.MoreSidedDiffRequestGenerator;
 import org.jetbrains.research.refactorinsight.data.diff.ThreeSidedRange;
+import org.jetbrains.research.refactorinsight.utils.LineIndex;
 import org.jetbrains.research.refactorinsight.utils.Utils;
 
 /**
@@ -68,15 +69,15 @@ public class RefactoringLine {
   /**
    * Corrects lines and offsets returned by RefactoringMiner.
    *
-   * @param leftText  String containing whole left file contents.
-   * @param midText   String containing whole middle file contents.
-   * @param rightText String containing whole right file contents.
+   * @param leftText  line index of the whole left file contents.
+   * @param midText   line index of the whole middle file contents.
+   * @param rightText line index of the whole right file contents.
    */
-  public void correctLines(String leftText, String midText, String rightText,
+  public void correctLines(LineIndex leftText, LineIndex midText, LineIndex rightText,
                            boolean skipAnnotationsLeft, boolean skipAnnotationsMid,
                            boolean skipAnnotationsRight) {
     if (leftText != null) {
-      int maxLineLeft = Utils.getMaxLine(leftText);
+      int maxLineLeft = leftText.getLineCount();
       lines[LEFT_END] =
           lines[LEFT_END] < 0 || lines[LEFT_END] > maxLineLeft ? maxLineLeft : lines[LEFT_END];
       lines[LEFT_START] =
@@ -85,7 +86,7 @@ public class RefactoringLine {
     }
 
     if (midText != null) {
-      int maxLineMid = Utils.getMaxLine(midText);
+      int maxLineMid = midText.getLineCount();
       lines[MID_END] =
           lines[MID_END] < 0 || lines[MID_END] > maxLineMid ? maxLineMid : lines[MID_END];
       lines[MID_START] =
@@ -95,7 +96,7 @@ public class RefactoringLine {
     }
 
     if (rightText != null) {
-      int maxLineRight = Utils.getMaxLine(rightText);
+      int maxLineRight = rightText.getLineCount();
       lines[RIGHT_END] =
           lines[RIGHT_END] < 0 || lines[RIGHT_END] > maxLineRight ? maxLineRight : lines[RIGHT_END];
       lines[RIGHT_START] =
@@ -118,25 +119,23 @@ public class RefactoringLine {
     }
   }
 
-  private void computeMoreSidedRanges(String leftText, String rightText) {
+  private void computeMoreSidedRanges(LineIndex leftText, LineIndex rightText) {
     MoreSidedDiffRequestGenerator.MoreSidedRange
         moreSidedRange = new MoreSidedDiffRequestGenerator.MoreSidedRange();
     moreSidedRange.startLineLeft = lines[LEFT_START] + 1;
     moreSidedRange.endLineLeft = lines[LEFT_END];
-    moreSidedRange.startOffsetLeft = Utils
-        .getOffset(leftText, lines[LEFT_START] + 1, columns[LEFT_START]);
-    moreSidedRange.endOffsetLeft = Utils.getOffset(leftText, lines[LEFT_END], columns[LEFT_END]);
+    moreSidedRange.startOffsetLeft = leftText.getOffset(lines[LEFT_START] + 1, columns[LEFT_START]);
+    moreSidedRange.endOffsetLeft = leftText.getOffset(lines[LEFT_END], columns[LEFT_END]);
 
     moreSidedRange.startLineRight = lines[RIGHT_START] + 1;
     moreSidedRange.endLineRight = lines[RIGHT_END];
     moreSidedRange.startOffsetRight =
-        Utils.getOffset(rightText, lines[RIGHT_START] + 1, columns[RIGHT_START]);
-    moreSidedRange.endOffsetRight = Utils
-        .getOffset(rightText, lines[RIGHT_END], columns[RIGHT_END]);
+        rightText.getOffset(lines[RIGHT_START] + 1, columns[RIGHT_START]);
+    moreSidedRange.endOffsetRight = rightText.getOffset(lines[RIGHT_END], columns[RIGHT_END]);
     this.moreSidedRange = moreSidedRange;
   }
 
-  private void computeThreeSidedRanges(String leftText, String midText, String rightText) {
+  private void computeThreeSidedRanges(LineIndex leftText, LineIndex midText, LineIndex rightText) {
     left = offsets.stream().map(RefactoringOffset::getLeftRange)
         .collect(Collectors.toList());
     mid = new ArrayList<>();
@@ -145,21 +144,21 @@ public class RefactoringLine {
 
     if (hasColumns) {
       try {
-        int leftStartOffset = Utils.getOffset(leftText, lines[LEFT_START] + 1, 1);
+        int leftStartOffset = leftText.getOffset(lines[LEFT_START] + 1, 1);
         left.add(new TextRange(
-            Utils.getOffset(leftText, lines[LEFT_START] + 1, columns[LEFT_START]) - leftStartOffset,
-            Utils.getOffset(leftText, lines[LEFT_END], columns[LEFT_END]) - leftStartOffset
+            leftText.getOffset(lines[LEFT_START] + 1, columns[LEFT_START]) - leftStartOffset,
+            leftText.getOffset(lines[LEFT_END], columns[LEFT_END]) - leftStartOffset
         ));
-        int midStartOffset = Utils.getOffset(midText, lines[MID_START] + 1, 1);
+        int midStartOffset = midText.getOffset(lines[MID_START] + 1, 1);
         mid.add(new TextRange(
-            Utils.getOffset(midText, lines[MID_START] + 1, columns[MID_START]) - midStartOffset,
-            Utils.getOffset(midText, lines[MID_END], columns[MID_END]) - midStartOffset
+            midText.getOffset(lines[MID_START] + 1, columns[MID_START]) - midStartOffset,
+            midText.getOffset(lines[MID_END], columns[MID_END]) - midStartOffset
         ));
-        int rightStartOffset = Utils.getOffset(rightText, lines[RIGHT_START] + 1, 1);
+        int rightStartOffset = rightText.getOffset(lines[RIGHT_START] + 1, 1);
         right.add(new TextRange(
-            Utils.getOffset(rightText, lines[RIGHT_START] + 1,
+            rightText.getOffset(lines[RIGHT_START] + 1,
                             columns[RIGHT_START]) - rightStartOffset,
-            Utils.getOffset(rightText, lines[RIGHT_END],
+            rightText.getOffset(lines[RIGHT_END],
                             columns[RIGHT_END]) - rightStartOffset
         ));
       } catch (Exception e) {
@@ -168,7 +167,7 @@ public class RefactoringLine {
     }
   }
 
-  private void computeTwoSidedRanges(String leftText, String rightText) {
+  private void computeTwoSidedRanges(LineIndex leftText, LineIndex rightText) {
     if (lines[LEFT_START] == lines[LEFT_END]
         && lines[RIGHT_START] == lines[RIGHT_END]) {
       return;
@@ -181,10 +180,10 @@ public class RefactoringLine {
       int rightStart = lines[RIGHT_START] == lines[RIGHT_END]
           ? lines[RIGHT_START] : lines[RIGHT_START] + 1;
 
-      int leftStartOffset = Utils.getOffset(leftText, leftStart, columns[LEFT_START]);
-      int leftEndOffset = Utils.getOffset(leftText, lines[LEFT_END], columns[LEFT_END]);
-      int rightStartOffset = Utils.getOffset(rightText, rightStart, columns[RIGHT_START]);
-      int rightEndOffset = Utils.getOffset(rightText, lines[RIGHT_END], columns[RIGHT_END]);
+      int leftStartOffset = leftText.getOffset(leftStart, columns[LEFT_START]);
+      int leftEndOffset = leftText.getOffset(lines[LEFT_END], columns[LEFT_END]);
+      int rightStartOffset = rightText.getOffset(rightStart, columns[RIGHT_START]);
+      int rightEndOffset = rightText.getOffset(lines[RIGHT_END], columns[RIGHT_END]);
 
       if ((leftStartOffset != leftEndOffset) && (rightStartOffset != rightEndOffset)) {
         fragments.add(new DiffFragmentImpl(
@@ -199,7 +198,7 @@ public class RefactoringLine {
                                     lines[RIGHT_END], 0, 0, 0, 0, fragments);
   }
 
-  private void computeHighlighting(String leftText, String midText, String rightText) {
+  private void computeHighlighting(LineIndex leftText, LineIndex midText, LineIndex rightText) {
     if (!lazy) {
       return;
     }
@@ -338,7 +337,7 @@ public class RefactoringLine {
     }
   }
 
-  private void highlightPackage(String leftText, String rightText) {
+  private void highlightPackage(LineIndex leftText, LineIndex rightText) {
     int packageLine1 = Utils.findPackageLine(leftText);
     int packageLine2 = Utils.findPackageLine(rightText);
 
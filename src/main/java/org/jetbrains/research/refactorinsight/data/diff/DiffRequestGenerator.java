@@ -11,6 +11,7 @@ import java.util.function.Consumer;
 import org.jetbrains.research.refactorinsight.adapters.CodeRange;
 import org.jetbrains.research.refactorinsight.data.RefactoringInfo;
 import org.jetbrains.research.refactorinsight.data.RefactoringLine;
+import org.jetbrains.research.refactorinsight.utils.LineIndex;
 
 /**
  * Collects data from the {@link RefactoringLine} instances, corrects them if needed,
@@ -51,14 +52,14 @@ public abstract class DiffRequestGenerator {
   /**
    * Corrects each line if needed.
    *
-   * @param before               text left diff window.
-   * @param mid                  text mid diff window.
-   * @param after                text right diff window.
+   * @param before               line index of the text of the left diff window.
+   * @param mid                  line index of the text of the mid diff window.
+   * @param after                line index of the text of the right diff window.
    * @param skipAnnotationsLeft  always true, except when Remove or Modify Annotation refactorings happen.
    * @param skipAnnotationsMid   true.
    * @param skipAnnotationsRight always true, except when Add or Modify Annotation refactoring happen.
    */
-  public void correct(String before, String mid, String after, boolean skipAnnotationsLeft,
+  public void correct(LineIndex before, LineIndex mid, LineIndex after, boolean skipAnnotationsLeft,
                       boolean skipAnnotationsMid, boolean skipAnnotationsRight) {
     lineMarkings.forEach(l -> l
         .correctLines(before, mid, after, skipAnnotationsLeft, skipAnnotationsMid,
@@ -16,6 +16,7 @@ import org.jetbrains.research.refactorinsight.adapters.CodeRange;
 import org.jetbrains.research.refactorinsight.data.RefactoringInfo;
 import org.jetbrains.research.refactorinsight.data.RefactoringLine;
 import org.jetbrains.research.refactorinsight.ui.windows.DiffWindow;
+import org.jetbrains.research.refactorinsight.utils.LineIndex;
 import org.jetbrains.research.refactorinsight.utils.StringUtils;
 
 /**
@@ -101,7 +102,7 @@ public class MoreSidedDiffRequestGenerator extends DiffRequestGenerator {
    * Throws an exception if called.
    */
   @Override
-  public void correct(String before, String mid, String after, boolean skipAnnotationsLeft,
+  public void correct(LineIndex before, LineIndex mid, LineIndex after, boolean skipAnnotationsLeft,
                       boolean skipAnnotationsMid, boolean skipAnnotationsRight) {
     throw new IllegalStateException("Incorrect correct method for more sided diff request");
   }
@@ -114,7 +115,7 @@ public class MoreSidedDiffRequestGenerator extends DiffRequestGenerator {
    * @param after    text of right side.
    * @param pathPair path of file and boolean for revision.
    */
-  public void correct(List<String> befores, String after, List<Pair<String, Boolean>> pathPair,
+  public void correct(List<LineIndex> befores, LineIndex after, List<Pair<String, Boolean>> pathPair,
                       boolean skipAnnotationsLeft,
                       boolean skipAnnotationsMid, boolean skipAnnotationsRight) {
     assert pathPair.size() == lineMarkings.size();
@@ -26,6 +26,14 @@ public class ThreeSidedDiffRequestGenerator extends DiffRequestGenerator {
   public ThreeSidedDiffRequestGenerator() {
   }
 
+  public ThreeSidedDiffRequestGenerator(List<ThreeSidedRange> ranges) {
+    this.ranges = ranges;
+  }
+
+  public List<ThreeSidedRange> getRanges() {
+    return ranges;
+  }
+
   /**
    * Deserializes an {@link ThreeSidedDiffRequestGenerator} instance.
    *
@@ -85,6 +85,26 @@ public class ThreeSidedRange {
         ));
   }
 
+  public List<TextRange> getLeft() {
+    return left;
+  }
+
+  public List<TextRange> getMid() {
+    return mid;
+  }
+
+  public List<TextRange> getRight() {
+    return right;
+  }
+
+  public VisualisationType getType() {
+    return type;
+  }
+
+  public MergeLineFragment getFragment() {
+    return fragment;
+  }
+
   public SimpleThreesideDiffChange getDiffChange(SimpleThreesideDiffViewer viewer) {
     return new SimpleThreesideDiffChange(fragment, getMergeConflictType(type),
                                          new MergeInnerDifferences(left, mid, right), viewer);
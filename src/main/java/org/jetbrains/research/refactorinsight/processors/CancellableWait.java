@@ -0,0 +1,92 @@
+package org.jetbrains.research.refactorinsight.processors;
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.util.AbstractProgressIndicatorExBase;
+import com.intellij.openapi.wm.ex.ProgressIndicatorEx;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Waits for mining results on behalf of a progress indicator, without polling.
+ * The waiting thread sleeps until the result is ready, the deadline expires, or the indicator is canceled:
+ * a state delegate registered on the indicator cancels the awaited future, which wakes the thread up.
+ * Indicators that do not support delegates are checked for cancellation at a coarse interval instead.
+ */
+public final class CancellableWait {
+  private static final long FALLBACK_CHECK_MILLIS = 500;
+
+  private final ProgressIndicator indicator;
+  private final boolean listening;
+  private volatile Future<?> current;
+
+  /**
+   * Creates a waiter for a task, to be reused for all the results the task waits for.
+   *
+   * @param indicator progress indicator of the task.
+   */
+  public CancellableWait(@NotNull ProgressIndicator indicator) {
+    this.indicator = indicator;
+    this.listening = indicator instanceof ProgressIndicatorEx;
+    if (listening) {
+      ((ProgressIndicatorEx) indicator).addStateDelegate(new AbstractProgressIndicatorExBase() {
+        @Override
+        public void cancel() {
+          super.cancel();
+          Future<?> future = current;
+          if (future != null) {
+            future.cancel(false);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * Waits for a result.
+   *
+   * @param future  result to wait for; it is canceled if the indicator is.
+   * @param timeout maximum time to wait.
+   * @param unit    unit of the timeout.
+   * @param <T>     type of the result.
+   * @return the result, or null if the computation failed.
+   * @throws ProcessCanceledException if the indicator or the future was canceled.
+   * @throws TimeoutException         if the deadline expired first; the future is left running.
+   */
+  @Nullable
+  public <T> T await(@NotNull Future<T> future, long timeout, @NotNull TimeUnit unit) throws TimeoutException {
+    current = future;
+    try {
+      indicator.checkCanceled();
+      long deadline = System.nanoTime() + unit.toNanos(timeout);
+      while (true) {
+        long left = deadline - System.nanoTime();
+        if (left <= 0) {
+          throw new TimeoutException();
+        }
+        long wait = listening ? left : Math.min(left, TimeUnit.MILLISECONDS.toNanos(FALLBACK_CHECK_MILLIS));
+        try {
+          return future.get(wait, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+          indicator.checkCanceled();
+        }
+      }
+    } catch (CancellationException e) {
+      throw new ProcessCanceledException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new ProcessCanceledException(e);
+    } catch (ExecutionException e) {
+      return null;
+    } finally {
+      current = null;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+package org.jetbrains.research.refactorinsight.processors;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.OrTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Describes which languages supported by the detectors are touched by a commit.
+ * Computed with a tree diff against the first parent, without reading any file content,
+ * so that the miners are only invoked for the languages that actually changed.
+ * The diff also yields a key of the changed sources, the paths with their blob ids before and after,
+ * under which the detected refactorings can be reused for other commits making the same changes.
+ */
+public final class ChangedSources {
+  static final ChangedSources ALL = new ChangedSources(true, true, null);
+
+  private static final String JAVA_EXTENSION = ".java";
+  private static final String KOTLIN_EXTENSION = ".kt";
+
+  private final boolean java;
+  private final boolean kotlin;
+  private final String key;
+
+  private ChangedSources(boolean java, boolean kotlin, String key) {
+    this.java = java;
+    this.kotlin = kotlin;
+    this.key = key;
+  }
+
+  /**
+   * Classifies the paths changed in a commit.
+   *
+   * @param repository Git repository.
+   * @param commitHash commit to classify.
+   * @return the languages changed in the commit, and the key of the changes.
+   * @throws IOException if the commit or its trees cannot be read.
+   */
+  public static ChangedSources of(@NotNull Repository repository, @NotNull String commitHash) throws IOException {
+    boolean java = false;
+    boolean kotlin = false;
+    MessageDigest digest = Constants.newMessageDigest();
+    byte[] id = new byte[Constants.OBJECT_ID_LENGTH];
+    try (RevWalk revWalk = new RevWalk(repository);
+         TreeWalk treeWalk = new TreeWalk(repository)) {
+      RevCommit commit = revWalk.parseCommit(ObjectId.fromString(commitHash));
+      if (commit.getParentCount() > 0) {
+        treeWalk.addTree(revWalk.parseCommit(commit.getParent(0)).getTree());
+      } else {
+        treeWalk.addTree(new EmptyTreeIterator());
+      }
+      treeWalk.addTree(commit.getTree());
+      treeWalk.setRecursive(true);
+      treeWalk.setFilter(AndTreeFilter.create(TreeFilter.ANY_DIFF, OrTreeFilter.create(
+          PathSuffixFilter.create(JAVA_EXTENSION), PathSuffixFilter.create(KOTLIN_EXTENSION))));
+      while (treeWalk.next()) {
+        String path = treeWalk.getPathString();
+        java |= path.endsWith(JAVA_EXTENSION);
+        kotlin |= path.endsWith(KOTLIN_EXTENSION);
+        digest.update(path.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        for (int tree = 0; tree < 2; tree++) {
+          treeWalk.getObjectId(tree).copyRawTo(id, 0);
+          digest.update(id);
+        }
+      }
+    }
+    return new ChangedSources(java, kotlin, ObjectId.fromRaw(digest.digest()).getName());
+  }
+
+  public boolean hasJava() {
+    return java;
+  }
+
+  public boolean hasKotlin() {
+    return kotlin;
+  }
+
+  /**
+   * Returns the key of the changed sources: commits with equal keys make the same source changes,
+   * e.g. a commit and its cherry-picked, rebased or amended copies.
+   *
+   * @return the key, or null if it is unknown.
+   */
+  @Nullable
+  public String getKey() {
+    return key;
+  }
+
+  public boolean isEmpty() {
+    return !java && !kotlin;
+  }
+}
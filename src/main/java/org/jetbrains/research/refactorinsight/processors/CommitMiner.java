@@ -1,19 +1,21 @@
 package org.jetbrains.research.refactorinsight.processors;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Ref;
 import com.intellij.util.Consumer;
 import com.intellij.vcs.log.TimedVcsCommit;
 import git4idea.repo.GitRepository;
 
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Future;
+import java.util.concurrent.Phaser;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -22,7 +24,10 @@ import org.eclipse.jgit.lib.Repository;
 import org.jetbrains.research.kotlinrminer.api.GitHistoryKotlinRMiner;
 import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
 import org.jetbrains.research.refactorinsight.RefactorInsightBundle;
+import org.jetbrains.research.refactorinsight.services.ContentCache;
 import org.jetbrains.research.refactorinsight.services.MiningService;
+import org.jetbrains.research.refactorinsight.storage.SourceChangeIndex;
+import org.jetbrains.research.refactorinsight.utils.JGitContentProvider;
 import org.refactoringminer.api.GitHistoryRefactoringMiner;
 import org.refactoringminer.api.Refactoring;
 import org.refactoringminer.api.RefactoringHandler;
@@ -35,10 +40,12 @@ import org.refactoringminer.rm1.GitHistoryRefactoringMinerImpl;
  */
 public class CommitMiner implements Consumer<TimedVcsCommit> {
   private static final String progress = RefactorInsightBundle.message("progress");
-  private final ExecutorService pool;
+  private static final Logger logger = Logger.getInstance(CommitMiner.class);
+  public static final long COMMIT_TIMEOUT_SECONDS = 120;
+  private final Phaser pending = new Phaser(1);
   private final Map<String, RefactoringEntry> map;
+  private final MiningService service;
   private final Project myProject;
-  private final Repository myRepository;
   private final AtomicInteger commitsDone;
   private final ProgressIndicator progressIndicator;
   private final int limit;
@@ -46,25 +53,23 @@ public class CommitMiner implements Consumer<TimedVcsCommit> {
   /**
    * CommitMiner for mining a single commit.
    *
-   * @param pool       ThreadPool to submit to.
    * @param map        Map to add mined commit data to.
    * @param repository GitRepository.
    */
-  public CommitMiner(ExecutorService pool, Map<String, RefactoringEntry> map,
+  public CommitMiner(Map<String, RefactoringEntry> map,
                      GitRepository repository,
                      AtomicInteger commitsDone, ProgressIndicator progressIndicator, int limit) {
-    this.pool = pool;
     this.map = map;
     myProject = repository.getProject();
     //NB: nullable, check if initialized correctly
-    myRepository = ServiceManager.getService(myProject, MiningService.class).getRepository();
+    service = ServiceManager.getService(myProject, MiningService.class);
     this.commitsDone = commitsDone;
     this.progressIndicator = progressIndicator;
     this.limit = limit;
   }
 
   /**
-   * Returns a runnable that processes only one commit by consistently running RefactoringMiner and kotlinRMiner.
+   * Returns a runnable that processes only one commit by running RefactoringMiner and kotlinRMiner in parallel.
    *
    * @param commitHash       commit hash.
    * @param commitParentHash commit parent's hash.
@@ -76,59 +81,146 @@ public class CommitMiner implements Consumer<TimedVcsCommit> {
   public static Runnable mineAtCommit(String commitHash, String commitParentHash, long commitTimestamp,
                                       Map<String, RefactoringEntry> map,
                                       Project project, Repository repository) {
-    return getRunnableToDetectRefactorings(map, commitHash, commitParentHash, commitTimestamp, repository, project);
+    return getRunnableToDetectRefactorings(map, commitHash, commitParentHash, commitTimestamp, repository,
+                                           ContentCache.getInstance(project),
+                                           MiningService.getInstance(project).getSourceChanges());
   }
 
   /**
    * Creates a runnable to detect refactorings in Kotlin and Java code.
+   * A tree diff of the commit decides which detectors are needed: commits without Java or Kotlin changes
+   * get an empty entry without any parsing, and single-language commits run only the matching detector.
+   * When both languages changed, kotlinRMiner runs as a pooled sub-task while RefactoringMiner runs
+   * on the calling thread, so the commit costs about as much as the slower of the two detectors.
+   * The results are merged into one entry that is published to the map at once.
+   * If another commit with the same source changes was mined before, e.g. the original of a cherry-picked
+   * or rebased commit, its refactorings are copied instead of running the detectors.
    *
    * @param commitHash       commit hash.
    * @param commitParentHash commit parent's hash.
    * @param commitTimestamp  commit timestamp.
    * @param map              the inner map that should be updated.
-   * @param project          the current project.
    * @param repository       Git Repository.
+   * @param cache            project cache of file contents.
+   * @param changes          index of the mined commits by their source changes.
    * @return a runnable.
    */
   private static Runnable getRunnableToDetectRefactorings(Map<String, RefactoringEntry> map, String commitHash,
                                                           String commitParentHash, long commitTimestamp,
-                                                          Repository repository, Project project) {
+                                                          Repository repository,
+                                                          ContentCache cache,
+                                                          SourceChangeIndex changes) {
     return () -> {
-      GitHistoryKotlinRMiner kminer = new GitHistoryKotlinRMiner();
-      GitHistoryRefactoringMiner jminer = new GitHistoryRefactoringMinerImpl();
-
+      ChangedSources sources = classify(repository, commitHash);
+      String key = sources.isEmpty() ? null : sources.getKey();
+      RefactoringEntry reused = key == null ? null
+          : changes.find(key, map, commitHash, commitParentHash, commitTimestamp);
+      if (reused != null) {
+        publish(map, commitHash, reused);
+        return;
+      }
+      Future<RefactoringEntry> kotlinResult = sources.hasJava() && sources.hasKotlin()
+          ? ApplicationManager.getApplication().executeOnPooledThread(
+              () -> detectKotlinRefactorings(commitHash, commitParentHash, commitTimestamp, repository, cache))
+          : null;
       try {
-        jminer.detectAtCommit(repository, commitHash, new RefactoringHandler() {
-          @Override
-          public void handle(String commitId, List<Refactoring> refactorings) {
-            map.put(commitId, RefactoringEntry.convertJavaRefactorings(refactorings, commitHash,
-                commitParentHash, commitTimestamp, project));
-          }
-        });
-
-        kminer.detectAtCommit(repository, commitHash,
-            new org.jetbrains.research.kotlinrminer.api.RefactoringHandler() {
-              @Override
-              public void handle(String commitId,
-                                 List<org.jetbrains.research.kotlinrminer.api.Refactoring> refactorings) {
-                final RefactoringEntry convertedKtRefactorings =
-                    RefactoringEntry.convertKotlinRefactorings(refactorings, commitHash,
-                        commitParentHash, commitTimestamp, project);
-                Optional.ofNullable(map.get(commitId)).ifPresentOrElse(
-                    re -> re.addRefactorings(convertedKtRefactorings.getRefactorings()),
-                    () -> map.put(commitId, convertedKtRefactorings)
-                );
-              }
-            });
+        RefactoringEntry entry = RefactoringEntry.createEmptyEntry(commitHash, commitParentHash, commitTimestamp);
+        if (sources.hasJava()) {
+          addDetected(entry, detectJavaRefactorings(commitHash, commitParentHash, commitTimestamp,
+                                                    repository, cache));
+        }
+        if (kotlinResult != null) {
+          addDetected(entry, kotlinResult.get());
+        } else if (sources.hasKotlin()) {
+          addDetected(entry, detectKotlinRefactorings(commitHash, commitParentHash, commitTimestamp,
+                                                      repository, cache));
+        }
+        publish(map, commitHash, entry);
+        if (key != null) {
+          changes.record(key, commitHash);
+        }
+      } catch (InterruptedException e) {
+        cancel(kotlinResult);
+        Thread.currentThread().interrupt();
       } catch (Exception e) {
-        e.printStackTrace();
+        cancel(kotlinResult);
+        logger.warn("Cannot mine the refactorings of " + commitHash, e);
       }
     };
   }
 
+  /**
+   * Stores a mined entry. A timeout entry recorded while the commit was still being mined is replaced,
+   * a complete entry stored meanwhile, e.g. from the git notes or a bundle, is kept.
+   * Stored entries are never modified, as they may be read or written to the journal at the same time.
+   */
+  private static void publish(Map<String, RefactoringEntry> map, String commitHash, RefactoringEntry entry) {
+    map.merge(commitHash, entry, (current, mined) -> current.timeout ? mined : current);
+  }
+
+  private static ChangedSources classify(Repository repository, String commitHash) {
+    try {
+      return ChangedSources.of(repository, commitHash);
+    } catch (Exception e) {
+      logger.warn("Cannot list the changes of " + commitHash, e);
+      return ChangedSources.ALL;
+    }
+  }
+
+  private static void addDetected(RefactoringEntry entry, RefactoringEntry detected) {
+    if (detected != null) {
+      entry.addRefactorings(detected.getRefactorings());
+    }
+  }
+
+  private static void cancel(Future<?> future) {
+    if (future != null) {
+      future.cancel(true);
+    }
+  }
+
+  private static RefactoringEntry detectJavaRefactorings(String commitHash, String commitParentHash,
+                                                         long commitTimestamp, Repository repository,
+                                                         ContentCache cache)
+      throws Exception {
+    GitHistoryRefactoringMiner jminer = new GitHistoryRefactoringMinerImpl();
+    Ref<RefactoringEntry> result = Ref.create();
+    try (JGitContentProvider contents = new JGitContentProvider(repository, cache)) {
+      jminer.detectAtCommit(repository, commitHash, new RefactoringHandler() {
+        @Override
+        public void handle(String commitId, List<Refactoring> refactorings) {
+          result.set(RefactoringEntry.convertJavaRefactorings(refactorings, commitHash,
+              commitParentHash, commitTimestamp, contents));
+        }
+      });
+    }
+    return result.get();
+  }
+
+  private static RefactoringEntry detectKotlinRefactorings(String commitHash, String commitParentHash,
+                                                           long commitTimestamp, Repository repository,
+                                                           ContentCache cache)
+      throws Exception {
+    GitHistoryKotlinRMiner kminer = new GitHistoryKotlinRMiner();
+    Ref<RefactoringEntry> result = Ref.create();
+    try (JGitContentProvider contents = new JGitContentProvider(repository, cache)) {
+      kminer.detectAtCommit(repository, commitHash,
+          new org.jetbrains.research.kotlinrminer.api.RefactoringHandler() {
+            @Override
+            public void handle(String commitId,
+                               List<org.jetbrains.research.kotlinrminer.api.Refactoring> refactorings) {
+              result.set(RefactoringEntry.convertKotlinRefactorings(refactorings, commitHash,
+                  commitParentHash, commitTimestamp, contents));
+            }
+          });
+    }
+    return result.get();
+  }
+
   /**
    * Mines a gitCommit.
    * Method that calls RefactoringMiner and updates the refactoring map.
+   * Blocks while the work queue of the mining executor is full.
    *
    * @param gitCommit to be mined
    */
@@ -136,21 +228,28 @@ public class CommitMiner implements Consumer<TimedVcsCommit> {
     String commitId = gitCommit.getId().asString();
 
     if (!map.containsKey(commitId)) {
-      pool.execute(() -> {
-        if (progressIndicator.isCanceled()) {
-          cancelProgress();
-          return;
+      progressIndicator.checkCanceled();
+      String commitParentHash =
+          gitCommit.getParents().size() == 0 ? null : gitCommit.getParents().get(0).asString();
+      pending.register();
+      CompletableFuture<RefactoringEntry> result;
+      try {
+        result = service.mine(commitId, commitParentHash, gitCommit.getTimestamp(), MiningExecutor.Priority.BULK,
+                              () -> !progressIndicator.isCanceled());
+      } catch (RuntimeException e) {
+        pending.arriveAndDeregister();
+        throw e;
+      }
+      result.whenComplete((entry, error) -> {
+        try {
+          if (progressIndicator.isCanceled()) {
+            cancelProgress();
+          } else {
+            incrementProgress();
+          }
+        } finally {
+          pending.arriveAndDeregister();
         }
-
-        String commitParentHash =
-            gitCommit.getParents().size() == 0 ? null : gitCommit.getParents().get(0).asString();
-        detectRefactorings(getRunnableToDetectRefactorings(map, commitId, commitParentHash,
-                                                           gitCommit.getTimestamp(),
-                                                           myRepository, myProject),
-                           gitCommit.getId().asString(),
-                           commitParentHash,
-                           gitCommit.getTimestamp());
-        incrementProgress();
       });
     } else {
       incrementProgress();
@@ -158,24 +257,19 @@ public class CommitMiner implements Consumer<TimedVcsCommit> {
     }
   }
 
-  private void detectRefactorings(Runnable runnable, String commitHash,
-                                  String commitParentHash, long commitTimestamp) {
-    ExecutorService service = Executors.newSingleThreadExecutor();
-    Future<?> f = null;
+  /**
+   * Waits until all the commits submitted by this miner are processed.
+   *
+   * @param timeout maximum time to wait.
+   * @param unit    unit of the timeout.
+   * @return true if all the commits were processed in time.
+   */
+  public boolean awaitCompletion(long timeout, TimeUnit unit) throws InterruptedException {
     try {
-      f = service.submit(runnable);
-      f.get(120, TimeUnit.SECONDS);
+      pending.awaitAdvanceInterruptibly(pending.arrive(), timeout, unit);
+      return true;
     } catch (TimeoutException e) {
-      if (f.cancel(true)) {
-        RefactoringEntry refactoringEntry =
-            RefactoringEntry.createEmptyEntry(commitHash, commitParentHash, commitTimestamp);
-        refactoringEntry.setTimeout(true);
-        map.put(commitHash, refactoringEntry);
-      }
-    } catch (Exception e) {
-      e.printStackTrace();
-    } finally {
-      service.shutdown();
+      return false;
     }
   }
 
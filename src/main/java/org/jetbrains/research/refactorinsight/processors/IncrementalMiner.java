@@ -0,0 +1,209 @@
+package org.jetbrains.research.refactorinsight.processors;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.Alarm;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.services.MiningService;
+import org.jetbrains.research.refactorinsight.services.SettingsState;
+import org.jetbrains.research.refactorinsight.storage.RefactoringsJournal;
+
+/**
+ * Keeps the stored refactorings up to date with the repository by mining only the commits added since the last run.
+ * The tip of every branch and of HEAD is remembered after its new commits were mined, in a small file next to
+ * the journal; a run walks from the current tips and stops at the remembered ones, so its cost is proportional
+ * to the number of new commits. Repository events come in bursts (fetch, rebase, checkout),
+ * so they are debounced and coalesced into a single run.
+ */
+@Service
+public final class IncrementalMiner implements Disposable {
+  private static final int DELAY_MILLIS = 2000;
+  private static final String[] PREFIXES = {Constants.R_HEADS, Constants.R_REMOTES};
+
+  private final Logger logger = Logger.getInstance(IncrementalMiner.class);
+  private final Project project;
+  private final Alarm alarm;
+  private final Path file;
+
+  /**
+   * Creates the miner of a project.
+   *
+   * @param project current project.
+   */
+  public IncrementalMiner(@NotNull Project project) {
+    this.project = project;
+    this.alarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    this.file = RefactoringsJournal.getInstance(project).getFile().resolveSibling("tips");
+  }
+
+  public static IncrementalMiner getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, IncrementalMiner.class);
+  }
+
+  /**
+   * Schedules a run, replacing the one scheduled before if it has not started yet.
+   */
+  public void schedule() {
+    alarm.cancelAllRequests();
+    alarm.addRequest(this::mineNewCommits, DELAY_MILLIS);
+  }
+
+  /**
+   * Mines the commits that are reachable from the current tips but not from the remembered ones,
+   * and have not been mined yet, up to the commit limit. Runs one at a time.
+   * The first run mines the newest commits up to the limit, like the initial mining, and records the current tips
+   * as the baseline. Later runs remember the new tips only when all the commits since the remembered ones were
+   * queued, so a burst of more commits than the limit is mined over the next runs; older history is never walked.
+   */
+  private synchronized void mineNewCommits() {
+    MiningService service = MiningService.getInstance(project);
+    Repository repository = service.getOrOpenRepository();
+    if (repository == null) {
+      return;
+    }
+    try {
+      Map<String, String> tips = readTips();
+      boolean baseline = tips.isEmpty();
+      Map<String, String> current = new HashMap<>();
+      List<RevCommit> commits = new ArrayList<>();
+      boolean truncated = false;
+      try (RevWalk walk = new RevWalk(repository)) {
+        walk.setRetainBody(false);
+        boolean started = false;
+        for (Ref ref : refs(repository)) {
+          RevCommit tip = parse(walk, ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId());
+          if (tip == null) {
+            continue;
+          }
+          current.put(ref.getName(), tip.getName());
+          if (!tip.getName().equals(tips.get(ref.getName()))) {
+            walk.markStart(tip);
+            started = true;
+          }
+        }
+        if (started) {
+          for (String id : tips.values()) {
+            RevCommit mined = parse(walk, ObjectId.fromString(id));
+            if (mined != null) {
+              walk.markUninteresting(mined);
+            }
+          }
+          SettingsState settings = SettingsState.getInstance(project);
+          int limit = settings != null ? settings.commitLimit : Integer.MAX_VALUE;
+          // the baseline covers the newest commits whether they are mined or not, later runs count only new ones
+          int walked = 0;
+          RevCommit commit;
+          while ((commit = walk.next()) != null) {
+            if (baseline && walked++ == limit) {
+              truncated = true;
+              break;
+            }
+            if (service.getRefactorings().containsKey(commit.getName())) {
+              continue;
+            }
+            if (commits.size() == limit) {
+              truncated = true;
+              break;
+            }
+            commits.add(commit);
+          }
+        }
+      }
+      if (!commits.isEmpty()) {
+        logger.info("Mining " + commits.size() + " new commits");
+        service.mineCommits(commits, repository, MiningExecutor.Priority.HISTORY);
+      }
+      if (truncated && !baseline) {
+        // the remembered tips stay, so that the commits beyond the limit are walked again by the next run
+        logger.info("More than " + commits.size() + " new commits, the rest is mined by the next run");
+      } else if (!current.equals(tips)) {
+        writeTips(current);
+      }
+    } catch (IOException | RevWalkException | IllegalArgumentException e) {
+      logger.warn("Cannot mine the new commits", e);
+    }
+  }
+
+  private static List<Ref> refs(Repository repository) throws IOException {
+    List<Ref> refs = new ArrayList<>();
+    for (String prefix : PREFIXES) {
+      refs.addAll(repository.getRefDatabase().getRefsByPrefix(prefix));
+    }
+    Ref head = repository.exactRef(Constants.HEAD);
+    if (head != null) {
+      refs.add(head);
+    }
+    return refs;
+  }
+
+  private static RevCommit parse(RevWalk walk, ObjectId id) throws IOException {
+    if (id == null) {
+      return null;
+    }
+    try {
+      RevObject object = walk.peel(walk.parseAny(id));
+      return object instanceof RevCommit ? (RevCommit) object : null;
+    } catch (MissingObjectException e) {
+      return null;
+    }
+  }
+
+  private Map<String, String> readTips() throws IOException {
+    Map<String, String> tips = new HashMap<>();
+    if (!Files.exists(file)) {
+      return tips;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(" ");
+        if (parts.length == 2 && ObjectId.isId(parts[1])) {
+          tips.put(parts[0], parts[1]);
+        }
+      }
+    }
+    return tips;
+  }
+
+  private void writeTips(Map<String, String> tips) throws IOException {
+    Files.createDirectories(file.getParent());
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, String> entry : tips.entrySet()) {
+        writer.write(entry.getKey() + " " + entry.getValue());
+        writer.newLine();
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  @Override
+  public void dispose() {
+    alarm.cancelAllRequests();
+  }
+}
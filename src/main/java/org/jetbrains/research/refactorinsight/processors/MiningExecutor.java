@@ -0,0 +1,422 @@
+package org.jetbrains.research.refactorinsight.processors;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.services.SettingsState;
+
+/**
+ * Long-lived executor that runs the mining work of a project, scheduled by {@link Priority}.
+ * Urgent work, the commits a user is looking at, runs on its own workers, so it never waits for a background
+ * worker to free up. While urgent work is pending, the background workers do not start new commits,
+ * so the commit the user selected gets the CPU as soon as the commits already being mined are done.
+ * Background work is queued with a bounded capacity: once it is full, the submitting thread blocks until a worker
+ * frees a slot, so that the git log producer cannot run ahead of the miners.
+ * Per-commit time limits are enforced by a single shared watchdog thread. A detector that ignores the interrupt
+ * keeps its worker after the time limit, so the pool gets an extra worker until the stuck one returns.
+ * The executor is shut down together with the project.
+ */
+@Service
+public final class MiningExecutor implements Disposable {
+  private static final int QUEUE_CAPACITY_PER_THREAD = 4;
+  private static final long STUCK_REPORT_SECONDS = 10;
+  private static final Comparator<Runnable> BY_PRIORITY = Comparator
+      .comparing((Runnable task) -> ((TimedTask) task).priority)
+      .thenComparingLong(task -> ((TimedTask) task).sequence);
+  private final Logger logger = Logger.getInstance(MiningExecutor.class);
+  private final ThreadPoolExecutor pool;
+  private final ThreadPoolExecutor urgentPool;
+  private final Semaphore backgroundSlots;
+  private final Object urgentLock = new Object();
+  private final AtomicLong sequence = new AtomicLong();
+  private final ScheduledExecutorService watchdog;
+  private int urgentPending = 0;
+  private int threads;
+  private int stuckBackground = 0;
+  private int stuckUrgent = 0;
+
+  /**
+   * Priority classes of mining work, from the most to the least urgent.
+   */
+  public enum Priority {
+    /**
+     * The commit selected in the git log.
+     */
+    INTERACTIVE,
+    /**
+     * The commits of an opened pull request.
+     */
+    PULL_REQUEST,
+    /**
+     * Commits needed to keep the refactoring history of the current branches up to date.
+     */
+    HISTORY,
+    /**
+     * Backfill of the history, e.g. mining all the commits of the repository.
+     */
+    BULK;
+
+    boolean isUrgent() {
+      return this == INTERACTIVE || this == PULL_REQUEST;
+    }
+  }
+
+  /**
+   * Creates the executor using the number of threads configured in the project settings.
+   *
+   * @param project current project.
+   */
+  public MiningExecutor(@NotNull Project project) {
+    SettingsState settings = SettingsState.getInstance(project);
+    threads = Math.max(1, settings != null ? settings.threads : Runtime.getRuntime().availableProcessors());
+    pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<>(threads * QUEUE_CAPACITY_PER_THREAD, BY_PRIORITY),
+        namedThreadFactory("RefactorInsight Miner", Thread.MIN_PRIORITY));
+    pool.allowCoreThreadTimeOut(true);
+    backgroundSlots = new Semaphore(threads * QUEUE_CAPACITY_PER_THREAD);
+    urgentPool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<>(threads, BY_PRIORITY),
+        namedThreadFactory("RefactorInsight Interactive Miner", Thread.NORM_PRIORITY));
+    urgentPool.allowCoreThreadTimeOut(true);
+    watchdog = Executors.newSingleThreadScheduledExecutor(
+        namedThreadFactory("RefactorInsight Watchdog", Thread.NORM_PRIORITY - 1));
+  }
+
+  public static MiningExecutor getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, MiningExecutor.class);
+  }
+
+  /**
+   * Adjusts the number of workers, e.g. after the settings were changed.
+   *
+   * @param threads number of workers to use.
+   */
+  public synchronized void setParallelism(int threads) {
+    this.threads = Math.max(1, threads);
+    resizePools();
+  }
+
+  private synchronized void resizePools() {
+    resize(pool, threads + stuckBackground);
+    resize(urgentPool, threads + stuckUrgent);
+  }
+
+  private static void resize(ThreadPoolExecutor executor, int n) {
+    if (n > executor.getMaximumPoolSize()) {
+      executor.setMaximumPoolSize(n);
+      executor.setCorePoolSize(n);
+    } else {
+      executor.setCorePoolSize(n);
+      executor.setMaximumPoolSize(n);
+    }
+  }
+
+  /**
+   * Adds a worker in place of the one running a timed out task, until the task returns.
+   */
+  private synchronized void timedOut(TimedTask task) {
+    if (task.finished || task.compensated) {
+      return;
+    }
+    task.compensated = true;
+    if (task.priority.isUrgent()) {
+      stuckUrgent++;
+    } else {
+      stuckBackground++;
+    }
+    resizePools();
+    watchdog.schedule(() -> reportStuck(task), STUCK_REPORT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  private synchronized void finished(TimedTask task) {
+    task.finished = true;
+    if (!task.compensated) {
+      return;
+    }
+    if (task.priority.isUrgent()) {
+      stuckUrgent--;
+    } else {
+      stuckBackground--;
+    }
+    resizePools();
+  }
+
+  private void reportStuck(TimedTask task) {
+    Thread thread = task.runner;
+    synchronized (this) {
+      if (task.finished || thread == null) {
+        return;
+      }
+    }
+    Throwable trace = new Throwable("Stack trace of " + thread.getName());
+    trace.setStackTrace(thread.getStackTrace());
+    logger.warn(thread.getName() + " still runs a commit " + STUCK_REPORT_SECONDS
+        + " seconds after its time limit; it was replaced by a new worker", trace);
+  }
+
+  /**
+   * Submits background backfill work with a time limit, see {@link #submit(Priority, Runnable, long, TimeUnit,
+   * Runnable)}.
+   */
+  public Future<?> submit(@NotNull Runnable task, long timeout, @NotNull TimeUnit unit,
+                          @NotNull Runnable onTimeout) {
+    return submit(Priority.BULK, task, timeout, unit, onTimeout);
+  }
+
+  /**
+   * Submits a task with a time limit, see {@link #submit(Priority, Runnable, long, TimeUnit, Runnable, Runnable)}.
+   */
+  public Future<?> submit(@NotNull Priority priority, @NotNull Runnable task, long timeout, @NotNull TimeUnit unit,
+                          @NotNull Runnable onTimeout) {
+    return submit(priority, task, timeout, unit, onTimeout, () -> { });
+  }
+
+  /**
+   * Submits a task with a time limit.
+   * Queued tasks are started by priority, and in submission order within a priority.
+   * The time limit starts when a worker picks the task up, not when it is queued.
+   * Blocks the caller of background work while the background queue is full; urgent work is never blocked.
+   *
+   * @param priority  priority class of the task.
+   * @param task      work to run.
+   * @param timeout   maximum running time.
+   * @param unit      unit of the timeout.
+   * @param onTimeout called on the watchdog thread if the task was canceled because of the timeout.
+   * @param onDropped called if the executor discards the task without running it, e.g. when it shuts down;
+   *                  not called when the task is canceled through its future.
+   * @return future of the task.
+   */
+  public Future<?> submit(@NotNull Priority priority, @NotNull Runnable task, long timeout, @NotNull TimeUnit unit,
+                          @NotNull Runnable onTimeout, @NotNull Runnable onDropped) {
+    TimedTask timedTask = new TimedTask(priority, task, timeout, unit, onTimeout, onDropped);
+    if (priority.isUrgent()) {
+      synchronized (urgentLock) {
+        urgentPending++;
+      }
+      try {
+        urgentPool.execute(timedTask);
+      } catch (RejectedExecutionException e) {
+        timedTask.holdsUrgent.set(false);
+        urgentDone();
+        throw e;
+      }
+    } else {
+      if (pool.isShutdown()) {
+        throw new RejectedExecutionException("Mining executor has been shut down");
+      }
+      try {
+        backgroundSlots.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new RejectedExecutionException(e);
+      }
+      try {
+        pool.execute(timedTask);
+      } catch (RejectedExecutionException e) {
+        backgroundSlots.release();
+        throw e;
+      }
+    }
+    return timedTask;
+  }
+
+  /**
+   * Moves a running urgent task to the background, e.g. when nobody waits for its result any more.
+   * It runs on at the lowest thread priority, and no longer holds back the background workers.
+   * A task that has not started yet should be canceled instead.
+   *
+   * @param future future returned by {@link #submit}.
+   */
+  public void demote(@NotNull Future<?> future) {
+    if (future instanceof TimedTask) {
+      ((TimedTask) future).demote();
+    }
+  }
+
+  @Override
+  public void dispose() {
+    List<Runnable> dropped = new ArrayList<>(pool.shutdownNow());
+    dropped.addAll(urgentPool.shutdownNow());
+    watchdog.shutdownNow();
+    dropped.forEach(task -> ((TimedTask) task).drop());
+    synchronized (urgentLock) {
+      urgentPending = 0;
+      urgentLock.notifyAll();
+    }
+  }
+
+  private void urgentDone() {
+    synchronized (urgentLock) {
+      if (--urgentPending <= 0) {
+        urgentPending = 0;
+        urgentLock.notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Holds a background worker back while urgent work is pending.
+   */
+  private void awaitUrgent() throws InterruptedException {
+    synchronized (urgentLock) {
+      while (urgentPending > 0) {
+        urgentLock.wait();
+      }
+    }
+  }
+
+  private static ThreadFactory namedThreadFactory(String name, int priority) {
+    AtomicInteger counter = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, name + " " + counter.incrementAndGet());
+      thread.setDaemon(true);
+      thread.setPriority(priority);
+      return thread;
+    };
+  }
+
+  /**
+   * Task that arms the watchdog when it starts running and disarms it when it completes.
+   */
+  private final class TimedTask extends FutureTask<Void> {
+    private final Priority priority;
+    private final long sequence;
+    private final long timeout;
+    private final TimeUnit unit;
+    private final Runnable onTimeout;
+    private final Runnable onDropped;
+    private final AtomicBoolean holdsUrgent = new AtomicBoolean();
+    private volatile Thread runner;
+    // guarded by the executor
+    private boolean finished = false;
+    private boolean compensated = false;
+
+    TimedTask(Priority priority, Runnable task, long timeout, TimeUnit unit, Runnable onTimeout,
+              Runnable onDropped) {
+      super(task, null);
+      this.priority = priority;
+      this.sequence = MiningExecutor.this.sequence.getAndIncrement();
+      this.timeout = timeout;
+      this.unit = unit;
+      this.onTimeout = onTimeout;
+      this.onDropped = onDropped;
+      holdsUrgent.set(priority.isUrgent());
+    }
+
+    void demote() {
+      Thread thread = runner;
+      if (thread != null) {
+        thread.setPriority(Thread.MIN_PRIORITY);
+      }
+      if (holdsUrgent.compareAndSet(true, false)) {
+        urgentDone();
+      }
+    }
+
+    /**
+     * Cancels the task. A task that is still queued is removed from its queue right away,
+     * and stops holding back the background workers.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (!super.cancel(mayInterruptIfRunning)) {
+        return false;
+      }
+      if (priority.isUrgent()) {
+        urgentPool.remove(this);
+        if (holdsUrgent.compareAndSet(true, false)) {
+          urgentDone();
+        }
+      } else if (pool.remove(this)) {
+        // a task taken off the queue never starts, so it gives its slot back here
+        backgroundSlots.release();
+      }
+      return true;
+    }
+
+    /**
+     * Discards a task that has not started, and lets its submitter know.
+     */
+    void drop() {
+      if (cancel(false)) {
+        try {
+          onDropped.run();
+        } catch (Exception e) {
+          logger.warn(e);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      if (priority.isUrgent()) {
+        Thread.currentThread().setPriority(Thread.NORM_PRIORITY);
+        try {
+          runTimed();
+        } finally {
+          if (holdsUrgent.compareAndSet(true, false)) {
+            urgentDone();
+          }
+        }
+        return;
+      }
+      backgroundSlots.release();
+      if (!isDone()) {
+        try {
+          awaitUrgent();
+        } catch (InterruptedException e) {
+          drop();
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+      runTimed();
+    }
+
+    private void runTimed() {
+      if (isDone()) {
+        return;
+      }
+      runner = Thread.currentThread();
+      ScheduledFuture<?> deadline = watchdog.schedule(() -> {
+        if (cancel(true)) {
+          timedOut(this);
+          try {
+            onTimeout.run();
+          } catch (Exception e) {
+            logger.warn(e);
+          }
+        }
+      }, timeout, unit);
+      try {
+        super.run();
+      } finally {
+        deadline.cancel(false);
+        finished(this);
+        runner = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,308 @@
+package org.jetbrains.research.refactorinsight.processors;
+
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import org.eclipse.jgit.lib.Repository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+import org.jetbrains.research.refactorinsight.services.MiningService;
+
+/**
+ * Registry of the commits being mined, so that every commit is mined at most once at any moment.
+ * Requests for a commit that is already queued or running join that run, and all of them are notified
+ * when it completes. A request with a more urgent priority than the queued run submits it again at its priority;
+ * whichever copy starts first mines the commit, and the others are skipped.
+ * A run that no requester wants any more by the time it starts is skipped as well.
+ * When the last interested requester cancels its future, e.g. because the user selected another commit,
+ * a run that has not started is canceled, and a running one is demoted to finish into the store in the background.
+ */
+public class MiningRequests {
+  private final Logger logger = Logger.getInstance(MiningRequests.class);
+  private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+  private final Backend backend;
+
+  /**
+   * Creates the registry of a project.
+   *
+   * @param project current project.
+   * @param service mining service that stores the results.
+   */
+  public MiningRequests(@NotNull Project project, @NotNull MiningService service) {
+    this(new ProjectBackend(project, service));
+  }
+
+  MiningRequests(@NotNull Backend backend) {
+    this.backend = backend;
+  }
+
+  /**
+   * Requests the refactorings of a commit, mining it unless it is stored or already being mined.
+   *
+   * @param commitId   commit to mine.
+   * @param parent     first parent of the commit.
+   * @param timestamp  timestamp of the commit.
+   * @param repository repository to mine it in.
+   * @param priority   priority of the request.
+   * @param wanted     checked before the commit is mined: the run is skipped if no requester wants it any more.
+   * @return a future of the stored entry, which is a timeout entry if mining took too long,
+   *     or null if the commit was skipped or could not be mined. Canceling it does not affect other requesters,
+   *     as long as their {@code wanted} checks still hold.
+   */
+  @NotNull
+  public CompletableFuture<RefactoringEntry> request(@NotNull String commitId, @Nullable String parent,
+                                                     long timestamp, @NotNull Repository repository,
+                                                     @NotNull MiningExecutor.Priority priority,
+                                                     @NotNull BooleanSupplier wanted) {
+    Flight flight;
+    boolean fresh;
+    while (true) {
+      RefactoringEntry stored = backend.get(commitId);
+      if (stored != null) {
+        return CompletableFuture.completedFuture(stored);
+      }
+      Flight created = new Flight(commitId, parent, timestamp, repository);
+      flight = flights.computeIfAbsent(commitId, id -> created);
+      fresh = flight == created;
+      if (flight.join(wanted)) {
+        break;
+      }
+      // the flight was dropped by its last requester meanwhile: start a new one
+      flights.remove(commitId, flight);
+    }
+    Flight joined = flight;
+    CompletableFuture<RefactoringEntry> view = flight.result.thenApply(entry -> entry);
+    view.whenComplete((entry, error) -> {
+      if (view.isCancelled()) {
+        joined.abandon();
+      }
+    });
+    if (fresh || flight.raise(priority)) {
+      flight.submit(priority);
+    }
+    return view;
+  }
+
+  /**
+   * Returns whether a commit is queued or being mined.
+   *
+   * @param commitId commit id.
+   * @return true if a run of the commit has not completed yet.
+   */
+  public boolean isInFlight(@NotNull String commitId) {
+    return flights.containsKey(commitId);
+  }
+
+  /**
+   * A queued or running mining of a commit, shared by all its requesters.
+   */
+  private final class Flight {
+    private final String commitId;
+    private final String parent;
+    private final long timestamp;
+    private final Repository repository;
+    private final CompletableFuture<RefactoringEntry> result = new CompletableFuture<>();
+    private final List<BooleanSupplier> wanted = new CopyOnWriteArrayList<>();
+    private final List<Future<?>> submissions = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean started = new AtomicBoolean();
+    private MiningExecutor.Priority priority;
+    private boolean dropped = false;
+
+    Flight(String commitId, String parent, long timestamp, Repository repository) {
+      this.commitId = commitId;
+      this.parent = parent;
+      this.timestamp = timestamp;
+      this.repository = repository;
+    }
+
+    /**
+     * Adds a requester, unless the flight was already dropped because nobody wanted it.
+     *
+     * @return true if the requester joined the flight.
+     */
+    synchronized boolean join(BooleanSupplier requester) {
+      if (dropped) {
+        return false;
+      }
+      wanted.add(requester);
+      return true;
+    }
+
+    /**
+     * Drops the flight if no requester wants it any more. Requesters cannot join a dropped flight.
+     *
+     * @return true if the flight was dropped.
+     */
+    private synchronized boolean dropIfUnwanted() {
+      if (wanted.stream().anyMatch(BooleanSupplier::getAsBoolean)) {
+        return false;
+      }
+      dropped = true;
+      return true;
+    }
+
+    /**
+     * Raises the priority of a run that has not started yet.
+     *
+     * @return true if the run has to be submitted again at the new priority.
+     */
+    synchronized boolean raise(MiningExecutor.Priority requested) {
+      if (started.get() || priority == null || requested.compareTo(priority) >= 0) {
+        return false;
+      }
+      priority = requested;
+      return true;
+    }
+
+    void submit(MiningExecutor.Priority requested) {
+      synchronized (this) {
+        if (priority == null || requested.compareTo(priority) < 0) {
+          priority = requested;
+        }
+      }
+      try {
+        submissions.add(backend.submit(requested, this::run, this::timedOut, this::dropped));
+      } catch (RejectedExecutionException e) {
+        if (!started.get()) {
+          complete(null);
+        }
+      }
+    }
+
+    /**
+     * Cancels the run if it has not started and no requester wants it any more,
+     * or moves it to the background if it is running.
+     */
+    void abandon() {
+      synchronized (this) {
+        if (wanted.stream().anyMatch(BooleanSupplier::getAsBoolean)) {
+          return;
+        }
+        if (!started.compareAndSet(false, true)) {
+          submissions.forEach(backend::demote);
+          return;
+        }
+        dropped = true;
+      }
+      submissions.forEach(submission -> submission.cancel(false));
+      complete(null);
+    }
+
+    private void run() {
+      if (!started.compareAndSet(false, true)) {
+        return;
+      }
+      if (dropIfUnwanted()) {
+        complete(null);
+        return;
+      }
+      // an earlier flight of the commit may have completed after this one was requested
+      RefactoringEntry stored = backend.get(commitId);
+      if (stored != null) {
+        complete(stored);
+        return;
+      }
+      try {
+        backend.mine(commitId, parent, timestamp, repository);
+      } catch (RuntimeException e) {
+        logger.warn("Cannot mine the refactorings of " + commitId, e);
+      }
+      complete(backend.get(commitId));
+    }
+
+    /**
+     * Completes the flight when the executor discarded all its submissions without running them.
+     */
+    private void dropped() {
+      if (submissions.stream().allMatch(Future::isDone) && started.compareAndSet(false, true)) {
+        complete(null);
+      }
+    }
+
+    private void timedOut() {
+      RefactoringEntry entry = RefactoringEntry.createEmptyEntry(commitId, parent, timestamp);
+      entry.setTimeout(true);
+      backend.store(entry);
+      complete(entry);
+    }
+
+    private void complete(RefactoringEntry entry) {
+      flights.remove(commitId, this);
+      result.complete(entry);
+    }
+  }
+
+  /**
+   * Where the registry stores, mines and schedules the commits.
+   */
+  interface Backend {
+    @Nullable
+    RefactoringEntry get(@NotNull String commitId);
+
+    void store(@NotNull RefactoringEntry entry);
+
+    void mine(@NotNull String commitId, @Nullable String parent, long timestamp, @NotNull Repository repository);
+
+    @NotNull
+    Future<?> submit(@NotNull MiningExecutor.Priority priority, @NotNull Runnable task, @NotNull Runnable onTimeout,
+                     @NotNull Runnable onDropped);
+
+    void demote(@NotNull Future<?> submission);
+  }
+
+  /**
+   * Stores the results in the mining service of a project, and runs the commits on its mining executor.
+   */
+  private static final class ProjectBackend implements Backend {
+    private final Project project;
+    private final MiningService service;
+
+    ProjectBackend(Project project, MiningService service) {
+      this.project = project;
+      this.service = service;
+    }
+
+    @Override
+    public RefactoringEntry get(@NotNull String commitId) {
+      return service.get(commitId);
+    }
+
+    @Override
+    public void store(@NotNull RefactoringEntry entry) {
+      service.getRefactorings().put(entry.getCommitId(), entry);
+    }
+
+    @Override
+    public void mine(@NotNull String commitId, @Nullable String parent, long timestamp,
+                     @NotNull Repository repository) {
+      if (!service.loadFromNotes(commitId)) {
+        CommitMiner.mineAtCommit(commitId, parent, timestamp, service.getRefactorings(), project, repository).run();
+      }
+    }
+
+    @NotNull
+    @Override
+    public Future<?> submit(@NotNull MiningExecutor.Priority priority, @NotNull Runnable task,
+                            @NotNull Runnable onTimeout, @NotNull Runnable onDropped) {
+      return MiningExecutor.getInstance(project).submit(priority, task, CommitMiner.COMMIT_TIMEOUT_SECONDS,
+          TimeUnit.SECONDS, onTimeout, onDropped);
+    }
+
+    @Override
+    public void demote(@NotNull Future<?> submission) {
+      MiningExecutor.getInstance(project).demote(submission);
+    }
+  }
+}
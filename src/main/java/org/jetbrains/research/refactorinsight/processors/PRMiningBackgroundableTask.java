@@ -5,13 +5,9 @@ import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
-import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Ref;
-import com.intellij.util.ExceptionUtil;
 import com.intellij.vcs.log.VcsFullCommitDetails;
-import org.eclipse.jgit.lib.Repository;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.research.refactorinsight.RefactorInsightBundle;
@@ -19,18 +15,20 @@ import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
 import org.jetbrains.research.refactorinsight.pullrequests.PRFileEditor;
 import org.jetbrains.research.refactorinsight.services.MiningService;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class PRMiningBackgroundableTask extends Task.Backgroundable {
   private final Project project;
   private final PRFileEditor prFileEditor;
   private final MiningService service;
-  private final Repository myRepository;
-  private boolean canceled = false;
+  private volatile boolean canceled = false;
+  private volatile List<CompletableFuture<RefactoringEntry>> current = Collections.emptyList();
   private final Logger logger = Logger.getInstance(PRMiningBackgroundableTask.class);
   List<VcsFullCommitDetails> commitDetails;
 
@@ -45,7 +43,6 @@ public class PRMiningBackgroundableTask extends Task.Backgroundable {
     super(project, RefactorInsightBundle.message("mining"), true);
     this.project = project;
     this.service = ServiceManager.getService(project, MiningService.class);
-    this.myRepository = service.getRepository();
     this.prFileEditor = prFileEditor;
     this.commitDetails = commitDetails;
   }
@@ -54,87 +51,53 @@ public class PRMiningBackgroundableTask extends Task.Backgroundable {
   public void onFinished() {
     super.onFinished();
     ApplicationManager.getApplication()
-        .invokeLater(prFileEditor::buildComponent);
+        .invokeLater(prFileEditor::miningFinished);
   }
 
+  /**
+   * Requests all the commits of the pull request at once, so that they are mined in parallel
+   * on the urgent workers of the mining executor; commits already stored complete immediately.
+   * The editor is refreshed as the entries arrive, and the task waits until all of them have.
+   */
   @Override
   public void run(@NotNull ProgressIndicator progressIndicator) {
+    progressIndicator.setIndeterminate(false);
+    AtomicInteger done = new AtomicInteger();
+    List<CompletableFuture<RefactoringEntry>> futures = new ArrayList<>();
     for (VcsFullCommitDetails commit : commitDetails) {
-      try {
-        runWithCheckCanceled(
-            CommitMiner.mineAtCommit(commit.getId().asString(), commit.getParents().get(0).asString(),
-                                     commit.getTimestamp(), service.getState().refactoringsMap.map, project,
-                                     myRepository),
-            progressIndicator, commit, project
-        );
-      } catch (Exception e) {
-        logger.info(String.format("The mining of refactorings at the commit %s was canceled",
-                                  commit.getId().asString()));
-      }
+      CompletableFuture<RefactoringEntry> future = service.mine(commit.getId().asString(),
+          commit.getParents().get(0).asString(), commit.getTimestamp(), MiningExecutor.Priority.PULL_REQUEST,
+          () -> !canceled && !progressIndicator.isCanceled());
+      future.thenAccept(entry -> {
+        progressIndicator.setFraction((double) done.incrementAndGet() / commitDetails.size());
+        if (entry != null) {
+          prFileEditor.commitMined();
+        }
+      });
+      futures.add(future);
+    }
+    current = futures;
+    if (canceled) {
+      futures.forEach(future -> future.cancel(false));
+      return;
     }
-  }
-
-  public void cancel() {
-    canceled = true;
-  }
-
-  /**
-   * Allows to interrupt a process which does not performs checkCancelled() calls by itself.
-   */
-  public void runWithCheckCanceled(@NotNull final Runnable runnable,
-                                   @NotNull final ProgressIndicator indicator,
-                                   VcsFullCommitDetails commit, Project project) throws Exception {
-    final Ref<Throwable> error = Ref.create();
-    Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(
-        () -> ProgressManager.getInstance().executeProcessUnderProgress(() -> {
-          try {
-            runnable.run();
-          } catch (Throwable t) {
-            error.set(t);
-          }
-        }, indicator)
-    );
     try {
-      runWithCheckCanceled(future, indicator, commit, project);
-      ExceptionUtil.rethrowAll(error.get());
+      // every run completes within its own time limit once it starts, this only bounds the time in the queue
+      new CancellableWait(progressIndicator).await(CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])),
+          CommitMiner.COMMIT_TIMEOUT_SECONDS * Math.max(1, futures.size()), TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      logger.info("Stopped waiting for the commits of the pull request, they are shown as they are mined");
     } catch (ProcessCanceledException e) {
-      future.cancel(true);
-      throw e;
+      futures.forEach(future -> future.cancel(false));
+      logger.info("The mining of refactorings in the pull request was canceled");
     }
   }
 
   /**
-   * Waits for {@code future} to be complete or reach the maximum allowed mining time of 60 sec,
-   * or the current thread's indicator to be canceled.
+   * Cancels the task. Commits that have not started are not mined, the others finish in the background.
    */
-  private <T> void runWithCheckCanceled(@NotNull Future<T> future,
-                                        @NotNull final ProgressIndicator indicator,
-                                        VcsFullCommitDetails commit, Project project) throws
-      ExecutionException {
-    int timeout = 6000;
-    while (timeout > 0) {
-      if (canceled) {
-        indicator.cancel();
-      }
-      indicator.checkCanceled();
-      try {
-        future.get(10, TimeUnit.MILLISECONDS);
-        return;
-      } catch (InterruptedException e) {
-        throw new ProcessCanceledException(e);
-      } catch (TimeoutException ignored) {
-        logger.info("The timeout has been exceeded while checking task cancellation");
-      }
-      timeout -= 1;
-    }
-    if (timeout == 0) {
-      RefactoringEntry refactoringEntry = RefactoringEntry
-          .createEmptyEntry(commit.getId().asString(), commit.getParents().get(0).asString(),
-                            commit.getTimestamp());
-      refactoringEntry.setTimeout(true);
-      MiningService.getInstance(project).getState().refactoringsMap.map.put(
-          commit.getId().asString(),
-          refactoringEntry);
-    }
+  public void cancel() {
+    canceled = true;
+    current.forEach(future -> future.cancel(false));
   }
 }
@@ -5,20 +5,14 @@ import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.progress.ProgressIndicator;
-import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
-import com.intellij.openapi.util.Ref;
-import com.intellij.util.ExceptionUtil;
-import com.intellij.vcs.log.TimedVcsCommit;
 import com.intellij.vcs.log.VcsCommitMetadata;
 
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
-import org.eclipse.jgit.lib.Repository;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.research.refactorinsight.RefactorInsightBundle;
@@ -32,8 +26,9 @@ public class SingleCommitRefactoringTask extends Task.Backgroundable {
   private final VcsCommitMetadata commit;
   private final GitWindow window;
   private final MiningService service;
-  private final Repository myRepository;
-  private boolean canceled = false;
+  private volatile boolean canceled = false;
+  private volatile CompletableFuture<RefactoringEntry> future = null;
+  private volatile boolean finished = false;
   private final Logger logger = Logger.getInstance(SingleCommitRefactoringTask.class);
 
   /**
@@ -53,12 +48,23 @@ public class SingleCommitRefactoringTask extends Task.Backgroundable {
     this.commit = commit;
     this.window = window;
     this.service = ServiceManager.getService(project, MiningService.class);
-    this.myRepository = service.getRepository();
+  }
+
+  public String getCommitId() {
+    return commit.getId().asString();
+  }
+
+  /**
+   * Returns whether the task is still working on its commit.
+   */
+  public boolean isActive() {
+    return !finished && !canceled;
   }
 
   @Override
   public void onFinished() {
     super.onFinished();
+    finished = true;
     if (service.containsCommit(commit.getId().asString())) {
       System.out.println(RefactorInsightBundle.message("finished"));
       ApplicationManager.getApplication()
@@ -68,78 +74,39 @@ public class SingleCommitRefactoringTask extends Task.Backgroundable {
 
   @Override
   public void run(@NotNull ProgressIndicator progressIndicator) {
-    try {
-      runWithCheckCanceled(
-          CommitMiner.mineAtCommit(commit.getId().asString(), commit.getParents().get(0).asString(),
-                                   commit.getTimestamp(), service.getState().refactoringsMap.map, project,
-                                   myRepository),
-          progressIndicator, commit, project
-      );
-    } catch (Exception e) {
-      logger.info(String.format("The mining of refactorings at the commit %s was canceled", commit.getId()));
+    CompletableFuture<RefactoringEntry> future = service.mine(commit.getId().asString(),
+        commit.getParents().get(0).asString(), commit.getTimestamp(), MiningExecutor.Priority.INTERACTIVE,
+        () -> !canceled && !progressIndicator.isCanceled());
+    this.future = future;
+    if (canceled) {
+      future.cancel(false);
+      return;
     }
-  }
-
-  public void cancel() {
-    canceled = true;
-  }
-
-  /**
-   * Allows to interrupt a process which does not performs checkCancelled() calls by itself.
-   */
-  public void runWithCheckCanceled(@NotNull final Runnable runnable,
-                                   @NotNull final ProgressIndicator indicator,
-                                   VcsCommitMetadata commit, Project project) throws Exception {
-    final Ref<Throwable> error = Ref.create();
-    Future<?> future = ApplicationManager.getApplication().executeOnPooledThread(
-        () -> ProgressManager.getInstance().executeProcessUnderProgress(() -> {
-          try {
-            runnable.run();
-          } catch (Throwable t) {
-            error.set(t);
-          }
-        }, indicator)
-    );
     try {
-      runWithCheckCanceled(future, indicator, commit, project);
-      ExceptionUtil.rethrowAll(error.get());
+      new CancellableWait(progressIndicator).await(future, CommitMiner.COMMIT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (TimeoutException e) {
+      // the wait includes the time in the queue: the run records its own timeout, the view is refreshed when it ends
+      logger.info(String.format("Stopped waiting for the refactorings at the commit %s", commit.getId()));
+      future.thenAccept(entry -> {
+        if (entry != null) {
+          ApplicationManager.getApplication().invokeLater(() -> window.refresh(entry.getCommitId()));
+        }
+      });
     } catch (ProcessCanceledException e) {
-      future.cancel(true);
-      throw e;
+      future.cancel(false);
+      logger.info(String.format("The mining of refactorings at the commit %s was canceled", commit.getId()));
     }
   }
 
   /**
-   * Waits for {@code future} to be complete or reach the maximum allowed mining time of 60 sec,
-   * or the current thread's indicator to be canceled.
+   * Cancels the task, e.g. because another commit was selected.
+   * The commit is not mined if it has not started yet, and otherwise finishes in the background.
    */
-  private <T> void runWithCheckCanceled(@NotNull Future<T> future,
-                                        @NotNull final ProgressIndicator indicator,
-                                        TimedVcsCommit commit, Project project) throws
-      ExecutionException {
-    int timeout = 6000;
-    while (timeout > 0) {
-      if (canceled) {
-        indicator.cancel();
-      }
-      indicator.checkCanceled();
-      try {
-        future.get(10, TimeUnit.MILLISECONDS);
-        return;
-      } catch (InterruptedException e) {
-        throw new ProcessCanceledException(e);
-      } catch (TimeoutException ignored) {
-        logger.info("The timeout has been exceeded while checking task cancellation");
-      }
-      timeout -= 1;
-    }
-    if (timeout == 0) {
-      RefactoringEntry refactoringEntry =
-          RefactoringEntry.createEmptyEntry(commit.getId().asString(), commit.getParents().get(0).asString(),
-                                            commit.getTimestamp());
-      refactoringEntry.setTimeout(true);
-      MiningService.getInstance(project).getState().refactoringsMap.map.put(commit.getId().asString(),
-                                                                            refactoringEntry);
+  public void cancel() {
+    canceled = true;
+    CompletableFuture<RefactoringEntry> current = future;
+    if (current != null) {
+      current.cancel(false);
     }
   }
-}
\ No newline at end of file
+}
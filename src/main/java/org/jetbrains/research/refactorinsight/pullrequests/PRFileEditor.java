@@ -1,6 +1,7 @@
 package org.jetbrains.research.refactorinsight.pullrequests;
 
 import com.intellij.diff.util.FileEditorBase;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
@@ -43,6 +44,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Shows a list of discovered refactorings in opened Pull Request.
@@ -53,6 +55,8 @@ public class PRFileEditor extends FileEditorBase {
   private final JScrollPane panel;
   private JBLoadingPanel loadingPanel;
   private final ConcurrentHashMap<String, VcsFullCommitDetails> commitsDetails = new ConcurrentHashMap<>();
+  private final AtomicBoolean refreshPending = new AtomicBoolean();
+  private volatile boolean miningFinished = false;
 
   /**
    * Creates a new editor.
@@ -128,8 +132,30 @@ public class PRFileEditor extends FileEditorBase {
         project, this);
   }
 
+  /**
+   * Schedules a rebuild of the panel after the refactorings of a commit were mined.
+   * Commits mined in a burst are shown with a single rebuild.
+   */
+  public void commitMined() {
+    if (refreshPending.compareAndSet(false, true)) {
+      ApplicationManager.getApplication().invokeLater(() -> {
+        refreshPending.set(false);
+        buildComponent();
+      });
+    }
+  }
+
+  /**
+   * Shows the final results once all the commits of the Pull Request were mined.
+   */
+  public void miningFinished() {
+    miningFinished = true;
+    buildComponent();
+  }
+
   /**
    * Builds a panel to show the discovered refactorings in opened Pull Request.
+   * While the commits are still being mined, the refactorings found so far are shown.
    */
   public void buildComponent() {
     panel.setAutoscrolls(true);
@@ -145,6 +171,10 @@ public class PRFileEditor extends FileEditorBase {
       }
     }
 
+    // Keep loading until some refactorings are found or all commits are mined
+    if (refactoringsFromAllCommits.isEmpty() && !miningFinished) {
+      return;
+    }
     // Check if all commits don't have refactorings
     if (refactoringsFromAllCommits.isEmpty()) {
       final JBLabel component =
@@ -0,0 +1,148 @@
+package org.jetbrains.research.refactorinsight.services;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.ThrowableComputable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.utils.BlobText;
+
+/**
+ * Project-wide LRU cache of file contents keyed by (revision, path).
+ * Shared by the line correction done while mining and by the refactoring diff windows,
+ * so that a diff opened right after mining does not read the same revisions from VCS again.
+ * In a linear history the "before" side of a commit is the "after" side of its parent,
+ * so consecutive commits of a mined range also hit the files loaded for each other.
+ * The cache is bounded by a memory budget; the least recently used files are evicted first.
+ * Contents read while mining are kept as {@link BlobText}, which costs one byte per character for ASCII sources.
+ * The hit and miss counts are logged when the project is closed.
+ */
+@Service
+public final class ContentCache implements Disposable {
+  private static final long MEGABYTE = 1024 * 1024;
+  private final Logger logger = Logger.getInstance(ContentCache.class);
+  private final LinkedHashMap<String, Cached> contents = new LinkedHashMap<>(64, 0.75f, true);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private long budget;
+  private long size = 0;
+
+  /**
+   * Creates the cache with the memory budget configured in the project settings.
+   *
+   * @param project current project.
+   */
+  public ContentCache(@NotNull Project project) {
+    SettingsState settings = SettingsState.getInstance(project);
+    budget = (settings != null ? settings.contentCacheSize : new SettingsState().contentCacheSize) * MEGABYTE;
+  }
+
+  public static ContentCache getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, ContentCache.class);
+  }
+
+  /**
+   * Returns the content of a file at a revision, loading and caching it on a miss.
+   *
+   * @param revision commit id of the revision.
+   * @param path     path of the file relative to the repository root.
+   * @param loader   loads the content on a miss.
+   * @return the file content, or null if the loader returned null.
+   */
+  public <E extends Exception> CharSequence getOrLoad(@NotNull String revision, @NotNull String path,
+                                                      @NotNull ThrowableComputable<? extends CharSequence, E> loader)
+      throws E {
+    String key = revision + ":" + path;
+    Cached cached;
+    synchronized (this) {
+      cached = contents.get(key);
+    }
+    if (cached != null) {
+      hits.incrementAndGet();
+      return cached.content;
+    }
+    misses.incrementAndGet();
+    CharSequence content = loader.compute();
+    if (content != null) {
+      put(key, content);
+    }
+    return content;
+  }
+
+  private synchronized void put(String key, CharSequence content) {
+    Cached cached = new Cached(content);
+    Cached previous = contents.put(key, cached);
+    size += cached.charged - (previous == null ? 0 : previous.charged);
+    evict();
+  }
+
+  private void evict() {
+    Iterator<Cached> eldest = contents.values().iterator();
+    while (size > budget && eldest.hasNext()) {
+      size -= eldest.next().charged;
+      eldest.remove();
+    }
+  }
+
+  private static long sizeOf(CharSequence content) {
+    if (content instanceof BlobText) {
+      return ((BlobText) content).getMemorySize();
+    }
+    return 2L * content.length();
+  }
+
+  /**
+   * Changes the memory budget, evicting files if the cache no longer fits.
+   *
+   * @param megabytes new budget in megabytes.
+   */
+  public synchronized void setBudget(int megabytes) {
+    budget = megabytes * MEGABYTE;
+    evict();
+  }
+
+  public synchronized void clear() {
+    contents.clear();
+    size = 0;
+  }
+
+  @Override
+  public synchronized void dispose() {
+    logger.info(String.format("Content cache: %d hits, %d misses, %d files in %d KB",
+                              hits.get(), misses.get(), contents.size(), size / 1024));
+    clear();
+  }
+
+  /**
+   * A cached content with the size it was charged when added,
+   * which is exactly what is released when it is evicted.
+   */
+  private static final class Cached {
+    private final CharSequence content;
+    private final long charged;
+
+    Cached(CharSequence content) {
+      this.content = content;
+      this.charged = sizeOf(content);
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+}
@@ -1,40 +1,68 @@
 package org.jetbrains.research.refactorinsight.services;
 
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.PersistentStateComponent;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.components.ServiceManager;
 import com.intellij.openapi.components.State;
 import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.progress.Task;
 import com.intellij.openapi.project.Project;
+import com.intellij.util.Alarm;
 import com.intellij.util.xmlb.annotations.OptionTag;
 import com.intellij.vcs.log.VcsCommitMetadata;
 import com.intellij.vcs.log.VcsFullCommitDetails;
 import git4idea.history.GitHistoryUtils;
 import git4idea.repo.GitRepository;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.research.refactorinsight.RefactorInsightBundle;
 import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
 import org.jetbrains.research.refactorinsight.data.RefactoringInfo;
 import org.jetbrains.research.refactorinsight.processors.CommitMiner;
+import org.jetbrains.research.refactorinsight.processors.MiningExecutor;
+import org.jetbrains.research.refactorinsight.processors.MiningRequests;
 import org.jetbrains.research.refactorinsight.processors.PRMiningBackgroundableTask;
 import org.jetbrains.research.refactorinsight.processors.SingleCommitRefactoringTask;
 import org.jetbrains.research.refactorinsight.pullrequests.PRFileEditor;
+import org.jetbrains.research.refactorinsight.storage.GitNotesStore;
+import org.jetbrains.research.refactorinsight.storage.JournaledMap;
+import org.jetbrains.research.refactorinsight.storage.LegacyRefactoringsReader;
+import org.jetbrains.research.refactorinsight.storage.RefactoringsBundle;
+import org.jetbrains.research.refactorinsight.storage.RefactoringsCodec;
+import org.jetbrains.research.refactorinsight.storage.RefactoringsJournal;
+import org.jetbrains.research.refactorinsight.storage.SchemaMigrations;
+import org.jetbrains.research.refactorinsight.storage.SourceChangeIndex;
+import org.jetbrains.research.refactorinsight.storage.UnreachableCommitsCollector;
 import org.jetbrains.research.refactorinsight.ui.windows.GitWindow;
 import org.jetbrains.research.refactorinsight.utils.Utils;
 import org.refactoringminer.util.GitServiceImpl;
@@ -43,22 +71,40 @@ import org.refactoringminer.util.GitServiceImpl;
  * This is the MiningService.
  * It computes, process and stores the data retrieved from RefactoringMiner.
  * It can mine one specific commit, a fixed number of commits, or all commits in the repository.
- * it stores and persists the detected refactoring data in .idea/refactorings.xml file.
+ * It stores the detected refactoring data in a {@link RefactoringsJournal},
+ * while .idea/refactorings.xml only keeps the version of the data.
  */
 @State(name = "MiningRefactoringsState",
     storages = {@Storage("refactorings.xml")})
 @Service
-public class MiningService implements PersistentStateComponent<MiningService.MyState> {
+public class MiningService implements PersistentStateComponent<MiningService.MyState>, Disposable {
+
+  private static final int IMPORT_BATCH = 500;
+  private static final int SELECTION_DELAY_MILLIS = 150;
+  private static final int NOTES_DELAY_MILLIS = 30_000;
+  private static final Logger logger = Logger.getInstance(MiningService.class);
 
   public static ConcurrentHashMap<String, Set<RefactoringInfo>> methodHistory
       = new ConcurrentHashMap<>();
   private boolean mining = false;
   private MyState innerState = new MyState();
+  private final JournaledMap refactorings = new JournaledMap();
+  private final RefactoringsJournal journal;
+  private final SourceChangeIndex sourceChanges;
+  private final MiningRequests requests;
+  private final Alarm selectionAlarm = new Alarm(this);
+  private final Alarm notesAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+  private final Project project;
   private SingleCommitRefactoringTask task = null;
   private PRMiningBackgroundableTask prTask = null;
   private Repository myRepository = null;
+  private GitNotesStore notes = null;
 
-  public MiningService() {
+  public MiningService(@NotNull Project project) {
+    this.project = project;
+    journal = RefactoringsJournal.getInstance(project);
+    sourceChanges = new SourceChangeIndex(journal);
+    requests = new MiningRequests(project, this);
   }
 
   public static MiningService getInstance(@NotNull Project project) {
@@ -71,17 +117,315 @@ public class MiningService implements PersistentStateComponent<MiningService.MyS
 
   @Override
   public MyState getState() {
+    journal.flushAsync(refactorings);
+    // settings are saved often: the notes are written once saves settle down, in a single notes commit
+    notesAlarm.cancelAllRequests();
+    notesAlarm.addRequest(this::writeNotes, NOTES_DELAY_MILLIS);
     return innerState;
   }
 
   @Override
   public void loadState(MyState state) {
-    if (Utils.version().equals(state.refactoringsMap.version)) {
-      innerState = state;
-    } else {
-      innerState = new MyState();
-      innerState.refactoringsMap.version = Utils.version();
+    loadJournal();
+    if (state.refactoringsMap != null) {
+      // data stored in refactorings.xml by older versions of the plugin moves to the journal,
+      // and stays in the state until it is imported in case the IDE is closed meanwhile
+      String legacy = state.refactoringsMap;
+      innerState.refactoringsMap = legacy;
+      ApplicationManager.getApplication().executeOnPooledThread(() -> importLegacy(legacy));
+    }
+  }
+
+  /**
+   * Imports the refactorings stored by older versions of the plugin into the journal, in batches.
+   * Entries mined meanwhile are newer and are kept. Corrupt entries are skipped and mined again.
+   * A map written with another data version cannot be parsed, so all its commits are mined again.
+   *
+   * @param value serialized refactorings map.
+   */
+  private void importLegacy(@NotNull String value) {
+    LegacyRefactoringsReader reader = new LegacyRefactoringsReader(value);
+    List<String> outdated = new ArrayList<>();
+    if (Utils.version().equals(reader.getVersion())) {
+      Map<String, RefactoringEntry> batch = new HashMap<>();
+      int imported = reader.read((commitId, entry) -> {
+        if (!refactorings.containsKey(commitId)) {
+          batch.put(commitId, entry);
+        }
+        if (batch.size() >= IMPORT_BATCH) {
+          journal.append(refactorings, batch);
+          batch.clear();
+        }
+      });
+      journal.append(refactorings, batch);
+      logger.info("Imported the refactorings of " + imported + " commits from refactorings.xml");
+      for (String commitId : reader.getSkipped()) {
+        if (!commitId.startsWith("@")) {
+          outdated.add(commitId);
+        }
+      }
+    } else if (reader.getVersion() != null) {
+      reader.readCommitIds(outdated::add);
+      logger.info("Discarding the refactorings of " + outdated.size() + " commits from refactorings.xml, "
+          + "stored with data version " + reader.getVersion() + " instead of " + Utils.version());
+    }
+    if (!reader.getSkipped().isEmpty()) {
+      logger.warn("Skipped corrupt refactorings of commits " + reader.getSkipped());
+    }
+    innerState.refactoringsMap = null;
+    outdated.removeIf(refactorings::containsKey);
+    Repository repository = outdated.isEmpty() ? null : getOrOpenRepository();
+    if (repository != null) {
+      mineAgain(outdated, repository);
+    }
+  }
+
+  /**
+   * Writes all the stored refactorings to a bundle, see {@link RefactoringsBundle}.
+   * Entries are read from the journal one at a time, so the export does not load the whole history.
+   *
+   * @param out stream to write the bundle to.
+   * @return the number of exported entries.
+   * @throws IOException if the bundle cannot be written.
+   */
+  public int exportBundle(@NotNull OutputStream out) throws IOException {
+    Set<String> commits = new LinkedHashSet<>(journal.getCommits());
+    commits.addAll(refactorings.keySet());
+    return RefactoringsBundle.write(out, commits, commitId -> {
+      RefactoringEntry entry = refactorings.getLive(commitId);
+      return entry != null ? RefactoringsCodec.encode(entry) : journal.readEncoded(commitId);
+    });
+  }
+
+  /**
+   * Merges the refactorings of a bundle into the stored ones, in batches.
+   * Local results are kept, unless the local commit timed out and the bundle has a complete result for it.
+   *
+   * @param in stream to read the bundle from.
+   * @return what was imported.
+   * @throws IOException if the stream is not a readable bundle. Entries read until then are kept.
+   */
+  @NotNull
+  public RefactoringsBundle.Summary importBundle(@NotNull InputStream in) throws IOException {
+    Map<String, RefactoringEntry> batch = new HashMap<>();
+    try {
+      return RefactoringsBundle.read(in, (commitId, entry) -> {
+        if (!refactorings.containsKey(commitId)) {
+          batch.put(commitId, entry);
+          if (batch.size() >= IMPORT_BATCH) {
+            journal.append(refactorings, batch);
+            batch.clear();
+          }
+          return true;
+        }
+        RefactoringEntry local = refactorings.get(commitId);
+        if (local != null && local.timeout && local.getRefactorings().isEmpty() && !entry.timeout) {
+          refactorings.put(commitId, entry);
+          return true;
+        }
+        return false;
+      });
+    } finally {
+      journal.append(refactorings, batch);
+      journal.flushAsync(refactorings);
+    }
+  }
+
+  @Override
+  public void noStateLoaded() {
+    loadJournal();
+  }
+
+  private void loadJournal() {
+    innerState = new MyState();
+    innerState.version = Utils.version();
+    journal.load(refactorings);
+    ApplicationManager.getApplication().executeOnPooledThread(() -> {
+      List<String> commits = journal.upgrade(refactorings);
+      Repository repository = getOrOpenRepository();
+      if (repository == null) {
+        return;
+      }
+      if (!commits.isEmpty()) {
+        mineAgain(commits, repository);
+      }
+      new UnreachableCommitsCollector(journal, refactorings, sourceChanges).collectIfDue(repository);
+    });
+  }
+
+  /**
+   * Mines again the commits whose stored refactorings were lost or outdated.
+   * Commits that are no longer in the repository are skipped.
+   *
+   * @param commitIds  commits to mine.
+   * @param repository repository to mine them in.
+   */
+  private void mineAgain(@NotNull List<String> commitIds, @NotNull Repository repository) {
+    List<RevCommit> commits = new ArrayList<>();
+    try (RevWalk walk = new RevWalk(repository)) {
+      for (String commitId : commitIds) {
+        try {
+          commits.add(walk.parseCommit(ObjectId.fromString(commitId)));
+        } catch (IOException e) {
+          // no longer in the repository
+        }
+      }
+    }
+    logger.info("Mining " + commits.size() + " commits again");
+    mineCommits(commits, repository, MiningExecutor.Priority.BULK);
+  }
+
+  /**
+   * Mines the given commits on the mining executor, and waits until they are done.
+   * Commits found in the git notes are not mined again. The results are persisted when all are done.
+   *
+   * @param commits    commits to mine.
+   * @param repository repository to mine them in.
+   * @param priority   priority of the mining work.
+   */
+  public void mineCommits(@NotNull List<RevCommit> commits, @NotNull Repository repository,
+                          @NotNull MiningExecutor.Priority priority) {
+    List<Future<RefactoringEntry>> futures = new ArrayList<>();
+    for (RevCommit commit : commits) {
+      String parent = commit.getParentCount() == 0 ? null : commit.getParent(0).getName();
+      futures.add(requests.request(commit.getName(), parent, commit.getCommitTime() * 1000L, repository, priority,
+          () -> true));
+    }
+    for (Future<RefactoringEntry> future : futures) {
+      try {
+        future.get();
+      } catch (CancellationException | ExecutionException e) {
+        // timed out, or failed and reported by the miner
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    journal.flushAsync(refactorings);
+    writeNotes();
+  }
+
+  @Override
+  public void dispose() {
+    journal.flush(refactorings);
+    notesAlarm.cancelAllRequests();
+    writeNotes();
+    synchronized (this) {
+      if (notes != null) {
+        notes.close();
+        notes = null;
+      }
+    }
+  }
+
+  /**
+   * Returns the git notes store of the repository, if storing results in git notes is enabled.
+   */
+  @Nullable
+  private synchronized GitNotesStore getNotes() {
+    SettingsState settings = SettingsState.getInstance(project);
+    if (settings == null || !settings.gitNotes) {
+      return null;
+    }
+    Repository repository = getOrOpenRepository();
+    if (notes == null && repository != null) {
+      notes = new GitNotesStore(repository);
+    }
+    return notes;
+  }
+
+  /**
+   * Looks a commit up in the git notes, if they are enabled, and stores the entry found there.
+   * Called before mining a commit, so that commits mined by another clone are not mined again.
+   *
+   * @param commitId commit id.
+   * @return true if an entry was found, and the commit does not need to be mined.
+   */
+  public boolean loadFromNotes(@NotNull String commitId) {
+    GitNotesStore store = getNotes();
+    RefactoringEntry entry = store == null ? null : store.read(commitId);
+    if (entry == null) {
+      return false;
+    }
+    refactorings.put(commitId, entry);
+    return true;
+  }
+
+  /**
+   * Writes the entries mined in this session to the git notes, if they are enabled.
+   */
+  private void writeNotes() {
+    GitNotesStore store = getNotes();
+    if (store != null) {
+      store.write(refactorings);
+    }
+  }
+
+  /**
+   * Returns the refactorings mined so far, by commit id.
+   * Changes to the map are persisted in the journal.
+   *
+   * @return the refactorings map.
+   */
+  public ConcurrentMap<String, RefactoringEntry> getRefactorings() {
+    return refactorings;
+  }
+
+  /**
+   * Replaces all the stored refactorings.
+   *
+   * @param map the new refactorings.
+   */
+  public void replaceRefactorings(@NotNull RefactoringsMap map) {
+    refactorings.clear();
+    sourceChanges.clear();
+    refactorings.putAll(map.map);
+    journal.flushAsync(refactorings);
+  }
+
+  /**
+   * Returns the index of the mined commits by their source changes, used to reuse the refactorings
+   * of rebased and cherry-picked commits.
+   *
+   * @return the index.
+   */
+  public SourceChangeIndex getSourceChanges() {
+    return sourceChanges;
+  }
+
+  /**
+   * Requests the refactorings of a commit, see {@link MiningRequests}.
+   * A commit that is stored is not mined again, and a commit that is being mined is not mined twice.
+   *
+   * @param commitId  commit to mine.
+   * @param parent    first parent of the commit.
+   * @param timestamp timestamp of the commit.
+   * @param priority  priority of the request.
+   * @param wanted    whether the requester still wants the commit when it is about to be mined.
+   * @return a future of the entry, or of null if the commit could not be mined.
+   */
+  @NotNull
+  public CompletableFuture<RefactoringEntry> mine(@NotNull String commitId, @Nullable String parent, long timestamp,
+                                                  @NotNull MiningExecutor.Priority priority,
+                                                  @NotNull BooleanSupplier wanted) {
+    Repository repository = getOrOpenRepository();
+    if (repository == null) {
+      return CompletableFuture.completedFuture(get(commitId));
     }
+    return requests.request(commitId, parent, timestamp, repository, priority, wanted);
+  }
+
+  /**
+   * Returns the repository of the project, opening it if needed.
+   *
+   * @return the repository, or null if the project is not a git repository.
+   */
+  @Nullable
+  public synchronized Repository getOrOpenRepository() {
+    if (myRepository == null) {
+      myRepository = openRepository(project.getBasePath());
+    }
+    return myRepository;
   }
 
   public Repository getRepository() {
@@ -146,12 +490,11 @@ public class MiningService implements PersistentStateComponent<MiningService.MyS
             mining = true;
             progressIndicator.setText(RefactorInsightBundle.message("mining"));
             progressIndicator.setIndeterminate(false);
-            int cores = SettingsState
-                .getInstance(repository.getProject()).threads;
-            ExecutorService pool = Executors.newFixedThreadPool(cores);
+            MiningExecutor executor = MiningExecutor.getInstance(repository.getProject());
+            executor.setParallelism(SettingsState.getInstance(repository.getProject()).threads);
             AtomicInteger commitsDone = new AtomicInteger(0);
             CommitMiner miner =
-                new CommitMiner(pool, innerState.refactoringsMap.map, repository, commitsDone,
+                new CommitMiner(refactorings, repository, commitsDone,
                                 progressIndicator,
                                 limit);
             progressIndicator.checkCanceled();
@@ -166,13 +509,14 @@ public class MiningService implements PersistentStateComponent<MiningService.MyS
             } finally {
               mining = false;
             }
-            pool.shutdown();
 
             try {
-              pool.awaitTermination(5, TimeUnit.MINUTES);
+              miner.awaitCompletion(5, TimeUnit.MINUTES);
             } catch (InterruptedException e) {
               e.printStackTrace();
             }
+            journal.flushAsync(refactorings);
+            writeNotes();
             if (repository.getCurrentRevision() != null) {
               computeRefactoringHistory(repository.getCurrentRevision(), repository.getProject());
             }
@@ -207,15 +551,22 @@ public class MiningService implements PersistentStateComponent<MiningService.MyS
    * @param window  to be updated.
    */
   public void mineAtCommit(VcsCommitMetadata commit, Project project, GitWindow window) {
+    if (task != null && task.isActive() && task.getCommitId().equals(commit.getId().asString())) {
+      return;
+    }
     if (task != null) {
       task.cancel();
+      task = null;
     }
-    if (myRepository == null) {
-      myRepository = openRepository(project.getBasePath());
-    }
-
-    task = new SingleCommitRefactoringTask(project, commit, window);
-    ProgressManager.getInstance().run(task);
+    // selections come in bursts while the user scrolls through the log: only the last one is mined
+    selectionAlarm.cancelAllRequests();
+    selectionAlarm.addRequest(() -> {
+      if (getOrOpenRepository() == null) {
+        return;
+      }
+      task = new SingleCommitRefactoringTask(project, commit, window);
+      ProgressManager.getInstance().run(task);
+    }, SELECTION_DELAY_MILLIS);
   }
 
   /**
@@ -242,9 +593,8 @@ public class MiningService implements PersistentStateComponent<MiningService.MyS
     List<RefactoringInfo> refs = new ArrayList<>();
     final SettingsState settingsState = SettingsState.getInstance(project);
     int limit = settingsState != null ? settingsState.historyLimit : Integer.MAX_VALUE / 100;
-    while (containsCommit(commitId) && limit-- > 0) {
-      RefactoringEntry refactoringEntry = get(commitId);
-      assert refactoringEntry != null;
+    RefactoringEntry refactoringEntry;
+    while (limit-- > 0 && (refactoringEntry = get(commitId)) != null) {
       refs.addAll(refactoringEntry.getRefactorings());
       commitId = refactoringEntry.getParent();
     }
@@ -257,25 +607,42 @@ public class MiningService implements PersistentStateComponent<MiningService.MyS
   }
 
   public RefactoringEntry get(String commitHash) {
-    return innerState.refactoringsMap.map.get(commitHash);
+    return refactorings.get(commitHash);
   }
 
   public boolean containsCommit(String commitHash) {
-    return innerState.refactoringsMap.map.containsKey(commitHash);
+    return refactorings.containsKey(commitHash);
   }
 
   public boolean containsRefactoring(String commitHash) {
-    return innerState.refactoringsMap.map.containsKey(commitHash)
-        && innerState.refactoringsMap.map.get(commitHash).getRefactorings().size() != 0;
+    RefactoringEntry entry = refactorings.getLive(commitHash);
+    if (entry == null) {
+      // answered from the journal index, so the columns of the git log do not decode every entry
+      return journal.getRefactoringCount(commitHash) > 0;
+    }
+    return entry.getRefactorings().size() != 0;
   }
 
   public void clear() {
-    innerState.refactoringsMap.map.clear();
+    refactorings.clear();
+    sourceChanges.clear();
+    journal.flushAsync(refactorings);
   }
 
+  /**
+   * Persisted state: only the version of the data, the data itself lives in the journal.
+   */
   public static class MyState {
-    @OptionTag(converter = RefactoringsMapConverter.class)
-    public RefactoringsMap refactoringsMap = new RefactoringsMap();
+    /**
+     * Version of the data classes. The journal keeps its own schema version, see {@link SchemaMigrations}.
+     */
+    public String version;
+    /**
+     * Refactorings stored by older versions of the plugin in the format of {@link RefactoringsMapConverter},
+     * imported into the journal on load. Kept as text, so that it is read one entry at a time.
+     */
+    @OptionTag("refactoringsMap")
+    public String refactoringsMap = null;
   }
 
 }
@@ -4,18 +4,22 @@ import static org.jetbrains.research.refactorinsight.utils.StringUtils.MAP;
 import static org.jetbrains.research.refactorinsight.utils.StringUtils.MAP_ENTRY;
 import static org.jetbrains.research.refactorinsight.utils.StringUtils.delimiter;
 
+import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.util.xmlb.Converter;
-import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+import org.jetbrains.research.refactorinsight.storage.LegacyRefactoringsReader;
 
 /**
  * RefactoringsMap converter that serializes and deserializes data.
  * Converts the data in the .xml to a RefactoringMap object.
  * Converts a RefactoringMap object into a string that can be stored in refactorings.xml.
+ * Corrupt entries are skipped when reading, so that they do not invalidate the rest of the data.
  */
 public class RefactoringsMapConverter extends Converter<RefactoringsMap> {
+  private static final Logger logger = Logger.getInstance(RefactoringsMapConverter.class);
 
   /**
    * Deserializes the data in the .idea/refactorings.xml into a refactorings
@@ -24,17 +28,16 @@ public class RefactoringsMapConverter extends Converter<RefactoringsMap> {
    * @return a refactorings map
    */
   public RefactoringsMap fromString(String value) {
-    try {
-      String regex1 = delimiter(MAP, true);
-      String regex2 = delimiter(MAP_ENTRY, true);
-      String[] tokens = value.split(regex1, 2);
-      return new RefactoringsMap(Arrays.stream(tokens[1].split(regex1))
-          .map(entry -> entry.split(regex2))
-          .collect(Collectors.toConcurrentMap(entry -> entry[0],
-              entry -> RefactoringEntry.fromString(entry[1], entry[0]))), tokens[0]);
-    } catch (Exception e) {
+    LegacyRefactoringsReader reader = new LegacyRefactoringsReader(value);
+    if (reader.getVersion() == null) {
       return new RefactoringsMap(new ConcurrentHashMap<>(), "-1");
     }
+    ConcurrentMap<String, RefactoringEntry> map = new ConcurrentHashMap<>();
+    reader.read(map::put);
+    if (!reader.getSkipped().isEmpty()) {
+      logger.warn("Skipped corrupt refactorings of commits " + reader.getSkipped());
+    }
+    return new RefactoringsMap(map, reader.getVersion());
   }
 
   /**
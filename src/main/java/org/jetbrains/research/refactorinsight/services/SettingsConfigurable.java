@@ -44,7 +44,9 @@ public class SettingsConfigurable implements Configurable {
     SettingsState settings = SettingsState.getInstance(project);
     return !(mySettingsComponent.getCommitLimit() == settings.commitLimit
         && mySettingsComponent.getHistoryLimit() == settings.historyLimit
-        && mySettingsComponent.getThreads() == settings.threads);
+        && mySettingsComponent.getThreads() == settings.threads
+        && mySettingsComponent.getContentCacheSize() == settings.contentCacheSize
+        && mySettingsComponent.isGitNotes() == settings.gitNotes);
   }
 
   @Override
@@ -53,6 +55,9 @@ public class SettingsConfigurable implements Configurable {
     settings.commitLimit = mySettingsComponent.getCommitLimit();
     settings.historyLimit = mySettingsComponent.getHistoryLimit();
     settings.threads = mySettingsComponent.getThreads();
+    settings.contentCacheSize = mySettingsComponent.getContentCacheSize();
+    settings.gitNotes = mySettingsComponent.isGitNotes();
+    ContentCache.getInstance(project).setBudget(settings.contentCacheSize);
     List<GitRepository> repositories = GitRepositoryManager
         .getInstance(project).getRepositories();
     if (repositories.isEmpty()) {
@@ -67,6 +72,8 @@ public class SettingsConfigurable implements Configurable {
     mySettingsComponent.setCommitLimit(settings.commitLimit);
     mySettingsComponent.setHistoryLimit(settings.historyLimit);
     mySettingsComponent.setThreads(settings.threads);
+    mySettingsComponent.setContentCacheSize(settings.contentCacheSize);
+    mySettingsComponent.setGitNotes(settings.gitNotes);
   }
 
   @Override
@@ -23,6 +23,8 @@ public class SettingsState implements PersistentStateComponent<SettingsState> {
   public int commitLimit = 100;
   public int historyLimit = 100;
   public int threads = 8;
+  public int contentCacheSize = 64;
+  public boolean gitNotes = false;
 
   public static SettingsState getInstance(Project project) {
     return ServiceManager.getService(project, SettingsState.class);
@@ -0,0 +1,207 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.notes.Note;
+import org.eclipse.jgit.notes.NoteMap;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+
+/**
+ * Stores mining results as git notes of the mined commits, under {@link #NOTES_REF}.
+ * The results then live in the repository next to the commits they describe, are garbage-collected with it,
+ * and can be shared with other clones by pushing and fetching the notes ref.
+ * A note holds a one-line header with the format and detector versions, followed by the entry
+ * in the binary format of {@link RefactoringsCodec}. Notes of an older format are upgraded when read;
+ * notes of an unknown format, or mined by older detectors that have changed since, are ignored.
+ */
+public class GitNotesStore implements AutoCloseable {
+  public static final String NOTES_REF = "refs/notes/refactorinsight";
+  private static final String HEADER = "RefactorInsight";
+  private static final int MAX_NOTE_SIZE = 16 * 1024 * 1024;
+  private static final int MAX_ATTEMPTS = 3;
+
+  private final Logger logger = Logger.getInstance(GitNotesStore.class);
+  private final Repository repository;
+  private final ObjectReader reader;
+  private final Set<String> stored = ConcurrentHashMap.newKeySet();
+  private ObjectId notesTip;
+  private NoteMap notes;
+
+  /**
+   * Creates the store of a repository.
+   *
+   * @param repository repository to keep the notes in.
+   */
+  public GitNotesStore(@NotNull Repository repository) {
+    this.repository = repository;
+    this.reader = repository.newObjectReader();
+  }
+
+  /**
+   * Reads the entry of a commit from its note.
+   *
+   * @param commitId commit id.
+   * @return the stored entry, or null if there is no usable note for the commit.
+   */
+  @Nullable
+  public synchronized RefactoringEntry read(@NotNull String commitId) {
+    try {
+      Note note = currentNotes().getNote(ObjectId.fromString(commitId));
+      if (note == null) {
+        return null;
+      }
+      RefactoringEntry entry = decode(reader.open(note.getData(), Constants.OBJ_BLOB).getCachedBytes(MAX_NOTE_SIZE),
+                                      commitId);
+      if (entry == null || entry.timeout) {
+        // notes of incomplete results, written by older versions, are mined again
+        return null;
+      }
+      stored.add(commitId);
+      return entry;
+    } catch (IOException | IllegalArgumentException e) {
+      logger.warn("Cannot read the git note of " + commitId, e);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the entries that do not have a note yet, in a single notes commit.
+   * Timeout entries are incomplete and are not shared.
+   *
+   * @param entries entries by commit id.
+   */
+  public synchronized void write(@NotNull Map<String, RefactoringEntry> entries) {
+    Map<String, RefactoringEntry> pending = new HashMap<>(entries);
+    pending.keySet().removeAll(stored);
+    pending.values().removeIf(entry -> entry.timeout);
+    if (pending.isEmpty()) {
+      return;
+    }
+    try {
+      for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+        if (tryWrite(pending)) {
+          stored.addAll(pending.keySet());
+          return;
+        }
+      }
+      logger.warn("Cannot update " + NOTES_REF + ": it is being updated concurrently");
+    } catch (IOException e) {
+      logger.warn("Cannot write git notes to " + NOTES_REF, e);
+    }
+  }
+
+  private boolean tryWrite(Map<String, RefactoringEntry> entries) throws IOException {
+    try (ObjectInserter inserter = repository.newObjectInserter();
+         RevWalk walk = new RevWalk(reader)) {
+      Ref ref = repository.exactRef(NOTES_REF);
+      ObjectId tip = ref == null ? null : ref.getObjectId();
+      NoteMap map = tip == null ? NoteMap.newEmptyMap() : NoteMap.read(reader, walk.parseCommit(tip));
+      for (Map.Entry<String, RefactoringEntry> entry : entries.entrySet()) {
+        map.set(ObjectId.fromString(entry.getKey()), inserter.insert(Constants.OBJ_BLOB, encode(entry.getValue())));
+      }
+      CommitBuilder commit = new CommitBuilder();
+      commit.setTreeId(map.writeTree(inserter));
+      if (tip != null) {
+        commit.setParentId(tip);
+      }
+      PersonIdent ident = new PersonIdent(repository);
+      commit.setAuthor(ident);
+      commit.setCommitter(ident);
+      commit.setMessage("Notes added by RefactorInsight\n");
+      ObjectId commitId = inserter.insert(commit);
+      inserter.flush();
+
+      RefUpdate update = repository.updateRef(NOTES_REF);
+      update.setNewObjectId(commitId);
+      update.setExpectedOldObjectId(tip == null ? ObjectId.zeroId() : tip);
+      update.setRefLogMessage("notes: RefactorInsight", false);
+      switch (update.update(walk)) {
+        case NEW:
+        case FAST_FORWARD:
+          notesTip = commitId;
+          notes = map;
+          return true;
+        case LOCK_FAILURE:
+          return false;
+        default:
+          throw new IOException("Cannot update " + NOTES_REF + ": " + update.getResult());
+      }
+    }
+  }
+
+  /**
+   * Returns the notes at the current tip of the notes ref, which may have been fetched or written meanwhile.
+   */
+  private NoteMap currentNotes() throws IOException {
+    Ref ref = repository.exactRef(NOTES_REF);
+    ObjectId tip = ref == null ? null : ref.getObjectId();
+    if (notes == null || !Objects.equals(tip, notesTip)) {
+      try (RevWalk walk = new RevWalk(reader)) {
+        notes = tip == null ? NoteMap.newEmptyMap() : NoteMap.read(reader, walk.parseCommit(tip));
+      }
+      notesTip = tip;
+    }
+    return notes;
+  }
+
+  private static byte[] encode(RefactoringEntry entry) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    String header = HEADER + " " + RefactoringsCodec.FORMAT + " " + SchemaMigrations.DETECTOR_VERSION + "\n";
+    out.write(header.getBytes(StandardCharsets.US_ASCII));
+    out.write(RefactoringsCodec.encode(entry));
+    return out.toByteArray();
+  }
+
+  @Nullable
+  private static RefactoringEntry decode(byte[] note, String commitId) {
+    int end = 0;
+    while (end < note.length && note[end] != '\n') {
+      end++;
+    }
+    String[] header = new String(note, 0, end, StandardCharsets.US_ASCII).split(" ");
+    if (end == note.length || header.length != 3 || !HEADER.equals(header[0])) {
+      return null;
+    }
+    int format;
+    int detector;
+    try {
+      format = Integer.parseInt(header[1]);
+      detector = Integer.parseInt(header[2]);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    if (!SchemaMigrations.canUpgrade(format)) {
+      return null;
+    }
+    byte[] bytes = SchemaMigrations.upgrade(Arrays.copyOfRange(note, end + 1, note.length), format);
+    RefactoringEntry entry = RefactoringsCodec.decode(bytes, commitId);
+    return SchemaMigrations.isOutdated(entry, SchemaMigrations.changedSince(detector)) ? null : entry;
+  }
+
+  @Override
+  public synchronized void close() {
+    reader.close();
+  }
+}
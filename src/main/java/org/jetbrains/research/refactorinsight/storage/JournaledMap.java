@@ -0,0 +1,207 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+
+/**
+ * Map of mined refactorings that remembers which commits changed since the last flush to the journal.
+ * Only the keys are tracked: the value written to the journal is the one in the map at flush time,
+ * so entries that are completed in place, e.g. by a second detector, are written once.
+ * Keys are marked after the map was changed, so a concurrent flush never misses the latest value.
+ *
+ * <p>Only the entries changed in this session are held in the map itself. {@link #get} and {@link #containsKey}
+ * also see the entries stored in the attached journal, which decodes them on demand;
+ * iteration and {@link #size} cover only the entries held in memory.
+ */
+public class JournaledMap extends ConcurrentHashMap<String, RefactoringEntry> {
+  private final transient Set<String> dirty = ConcurrentHashMap.newKeySet();
+  private transient volatile boolean cleared = false;
+  private transient volatile RefactoringsJournal journal;
+
+  /**
+   * Returns and forgets the commits changed since the last call.
+   *
+   * @return changed commit ids.
+   */
+  @NotNull
+  public List<String> drainChanges() {
+    List<String> changes = new ArrayList<>();
+    for (String key : dirty) {
+      if (dirty.remove(key)) {
+        changes.add(key);
+      }
+    }
+    return changes;
+  }
+
+  /**
+   * Returns and resets whether the map was cleared since the last call.
+   *
+   * @return true if the map was cleared.
+   */
+  public boolean drainCleared() {
+    boolean result = cleared;
+    cleared = false;
+    return result;
+  }
+
+  /**
+   * Attaches the journal the stored entries are read from.
+   *
+   * @param journal refactorings journal.
+   */
+  void attach(@NotNull RefactoringsJournal journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Returns the entry held in memory for a commit, without reading the journal.
+   *
+   * @param key commit id.
+   * @return the entry changed in this session, or null.
+   */
+  public RefactoringEntry getLive(@NotNull String key) {
+    return super.get(key);
+  }
+
+  /**
+   * Returns the commits whose entries are held in memory.
+   *
+   * @return commit ids.
+   */
+  Set<String> liveKeys() {
+    return keySet();
+  }
+
+  @Override
+  public RefactoringEntry get(@NotNull Object key) {
+    RefactoringEntry entry = super.get(key);
+    RefactoringsJournal stored = journal;
+    if (entry == null && stored != null) {
+      entry = stored.read((String) key);
+    }
+    return entry;
+  }
+
+  @Override
+  public boolean containsKey(@NotNull Object key) {
+    RefactoringsJournal stored = journal;
+    return super.containsKey(key) || stored != null && stored.contains((String) key);
+  }
+
+  @Override
+  public RefactoringEntry put(@NotNull String key, @NotNull RefactoringEntry value) {
+    RefactoringEntry result = super.put(key, value);
+    dirty.add(key);
+    return result;
+  }
+
+  @Override
+  public RefactoringEntry putIfAbsent(@NotNull String key, RefactoringEntry value) {
+    RefactoringEntry previous = super.putIfAbsent(key, value);
+    if (previous == null) {
+      dirty.add(key);
+    }
+    return previous;
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ? extends RefactoringEntry> entries) {
+    super.putAll(entries);
+    dirty.addAll(entries.keySet());
+  }
+
+  @Override
+  public RefactoringEntry merge(@NotNull String key, @NotNull RefactoringEntry value,
+                                @NotNull BiFunction<? super RefactoringEntry, ? super RefactoringEntry,
+                                    ? extends RefactoringEntry> remapping) {
+    RefactoringEntry result = super.merge(key, value, remapping);
+    dirty.add(key);
+    return result;
+  }
+
+  @Override
+  public RefactoringEntry compute(@NotNull String key,
+                                  @NotNull BiFunction<? super String, ? super RefactoringEntry,
+                                      ? extends RefactoringEntry> remapping) {
+    RefactoringEntry result = super.compute(key, remapping);
+    dirty.add(key);
+    return result;
+  }
+
+  @Override
+  public RefactoringEntry computeIfAbsent(@NotNull String key,
+                                          @NotNull Function<? super String, ? extends RefactoringEntry> mapping) {
+    RefactoringEntry result = super.computeIfAbsent(key, mapping);
+    dirty.add(key);
+    return result;
+  }
+
+  @Override
+  public RefactoringEntry computeIfPresent(@NotNull String key,
+                                           @NotNull BiFunction<? super String, ? super RefactoringEntry,
+                                               ? extends RefactoringEntry> remapping) {
+    RefactoringEntry result = super.computeIfPresent(key, remapping);
+    dirty.add(key);
+    return result;
+  }
+
+  @Override
+  public RefactoringEntry replace(@NotNull String key, @NotNull RefactoringEntry value) {
+    RefactoringEntry result = super.replace(key, value);
+    dirty.add(key);
+    return result;
+  }
+
+  @Override
+  public boolean replace(@NotNull String key, @NotNull RefactoringEntry oldValue,
+                         @NotNull RefactoringEntry newValue) {
+    boolean result = super.replace(key, oldValue, newValue);
+    dirty.add(key);
+    return result;
+  }
+
+  @Override
+  public RefactoringEntry remove(@NotNull Object key) {
+    RefactoringEntry result = super.remove(key);
+    forget((String) key);
+    dirty.add((String) key);
+    return result;
+  }
+
+  @Override
+  public boolean remove(@NotNull Object key, Object value) {
+    boolean result = super.remove(key, value);
+    if (result) {
+      forget((String) key);
+    }
+    dirty.add((String) key);
+    return result;
+  }
+
+  @Override
+  public void clear() {
+    cleared = true;
+    super.clear();
+    RefactoringsJournal stored = journal;
+    if (stored != null) {
+      stored.forgetAll();
+    }
+  }
+
+  private void forget(String key) {
+    RefactoringsJournal stored = journal;
+    if (stored != null) {
+      stored.forget(key);
+    }
+  }
+
+}
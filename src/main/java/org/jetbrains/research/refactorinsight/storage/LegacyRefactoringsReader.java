@@ -0,0 +1,147 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import static org.jetbrains.research.refactorinsight.utils.StringUtils.ESC;
+import static org.jetbrains.research.refactorinsight.utils.StringUtils.MAP;
+import static org.jetbrains.research.refactorinsight.utils.StringUtils.MAP_ENTRY;
+import static org.jetbrains.research.refactorinsight.utils.StringUtils.delimiter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+
+/**
+ * Single-pass reader of the refactorings stored in .idea/refactorings.xml by older versions of the plugin,
+ * in the format of {@link org.jetbrains.research.refactorinsight.services.RefactoringsMapConverter}.
+ * The value is scanned once and handed over entry by entry, so only one entry is parsed at a time.
+ * An entry that cannot be parsed is skipped and reported, instead of failing the whole map.
+ */
+public class LegacyRefactoringsReader {
+  private final CharSequence value;
+  private final char mapDelimiter = delimiter(MAP).charAt(0);
+  private final char entryDelimiter = delimiter(MAP_ENTRY).charAt(0);
+  private final char escape = ESC.charAt(0);
+  private final List<String> skipped = new ArrayList<>();
+  private final String version;
+  private int position;
+
+  /**
+   * Creates a reader of a serialized refactorings map.
+   *
+   * @param value serialized map.
+   */
+  public LegacyRefactoringsReader(@NotNull CharSequence value) {
+    this.value = value;
+    int end = next(mapDelimiter, 0, value.length());
+    if (end < value.length()) {
+      version = value.subSequence(0, end).toString();
+      position = end + 1;
+    } else {
+      version = null;
+      position = value.length();
+    }
+  }
+
+  /**
+   * Returns the data version the map was written with.
+   *
+   * @return version, or null if the value is not a serialized map.
+   */
+  @Nullable
+  public String getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the entries that could not be parsed.
+   * An entry is reported by its commit id, or by its offset in the value if even the id is missing.
+   *
+   * @return skipped entries.
+   */
+  @NotNull
+  public List<String> getSkipped() {
+    return Collections.unmodifiableList(skipped);
+  }
+
+  /**
+   * Parses the remaining entries and hands them over one by one.
+   *
+   * @param consumer receives the commit id and the entry.
+   * @return the number of entries read.
+   */
+  public int read(@NotNull BiConsumer<String, RefactoringEntry> consumer) {
+    int read = 0;
+    while (position < value.length()) {
+      int start = position;
+      int end = next(mapDelimiter, start, value.length());
+      position = end + 1;
+      if (start == end) {
+        continue;
+      }
+      int idEnd = next(entryDelimiter, start, end);
+      if (idEnd >= end) {
+        skipped.add("@" + start);
+        continue;
+      }
+      String commitId = value.subSequence(start, idEnd).toString();
+      // like the original split, anything after a second delimiter is not part of the entry
+      int entryEnd = next(entryDelimiter, idEnd + 1, end);
+      RefactoringEntry entry;
+      try {
+        entry = RefactoringEntry.fromString(value.subSequence(idEnd + 1, entryEnd).toString(), commitId);
+      } catch (RuntimeException e) {
+        skipped.add(commitId);
+        continue;
+      }
+      consumer.accept(commitId, entry);
+      read++;
+    }
+    return read;
+  }
+
+  /**
+   * Scans the remaining entries for their commit ids only, without parsing the entries.
+   * Used for maps written with another data version, whose entries cannot be parsed by this version.
+   *
+   * @param consumer receives the commit ids.
+   * @return the number of commit ids read.
+   */
+  public int readCommitIds(@NotNull Consumer<String> consumer) {
+    int read = 0;
+    while (position < value.length()) {
+      int start = position;
+      int end = next(mapDelimiter, start, value.length());
+      position = end + 1;
+      if (start == end) {
+        continue;
+      }
+      int idEnd = next(entryDelimiter, start, end);
+      if (idEnd >= end) {
+        skipped.add("@" + start);
+        continue;
+      }
+      consumer.accept(value.subSequence(start, idEnd).toString());
+      read++;
+    }
+    return read;
+  }
+
+  /**
+   * Finds the next delimiter that is not escaped, before the given end.
+   *
+   * @return its index, or the end if there is none.
+   */
+  private int next(char delimiter, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (value.charAt(i) == delimiter && (i == 0 || value.charAt(i - 1) != escape)) {
+        return i;
+      }
+    }
+    return to;
+  }
+}
@@ -0,0 +1,155 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.adapters.RefactoringType;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+
+/**
+ * Portable bundle of mined refactorings, to share them between the clones of a repository.
+ * A bundle is a gzip stream that starts with the format and detector versions of its entries,
+ * followed by the entries in the binary format of {@link RefactoringsCodec}, keyed by commit id.
+ * Both writing and reading stream the entries one at a time, so bundles of any size use bounded memory.
+ */
+public final class RefactoringsBundle {
+  public static final String EXTENSION = "rfbundle";
+  private static final int MAGIC = 0x52464231;
+  private static final byte ENTRY = 1;
+  private static final byte END = 0;
+  private static final int MAX_ENTRY_SIZE = 64 * 1024 * 1024;
+
+  private RefactoringsBundle() {
+  }
+
+  /**
+   * Writes a bundle.
+   *
+   * @param out       stream to write to; it is not closed.
+   * @param commitIds commits to export.
+   * @param entries   gives the encoded entry of a commit, or null to leave the commit out.
+   * @return the number of exported entries.
+   * @throws IOException if the bundle cannot be written.
+   */
+  public static int write(@NotNull OutputStream out, @NotNull Iterable<String> commitIds,
+                          @NotNull Function<String, byte[]> entries) throws IOException {
+    GZIPOutputStream zip = new GZIPOutputStream(out, 64 * 1024);
+    DataOutputStream data = new DataOutputStream(zip);
+    data.writeInt(MAGIC);
+    data.writeByte(RefactoringsCodec.FORMAT);
+    data.writeInt(SchemaMigrations.DETECTOR_VERSION);
+    int written = 0;
+    for (String commitId : commitIds) {
+      byte[] bytes = entries.apply(commitId);
+      if (bytes == null) {
+        continue;
+      }
+      data.writeByte(ENTRY);
+      data.writeUTF(commitId);
+      data.writeInt(bytes.length);
+      data.write(bytes);
+      written++;
+    }
+    data.writeByte(END);
+    data.flush();
+    zip.finish();
+    return written;
+  }
+
+  /**
+   * Reads a bundle and hands its entries over one by one.
+   * Entries mined by detectors that have changed since, and entries that cannot be decoded, are skipped.
+   *
+   * @param in       stream to read from; it is not closed.
+   * @param consumer receives the commit id and the entry, and returns whether the entry was taken.
+   * @return what was read.
+   * @throws IOException if the stream is not a bundle this version of the plugin can read, or is truncated.
+   *                     The entries read until then have already been handed over.
+   */
+  @NotNull
+  public static Summary read(@NotNull InputStream in, @NotNull BiPredicate<String, RefactoringEntry> consumer)
+      throws IOException {
+    DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in, 64 * 1024)));
+    if (data.readInt() != MAGIC) {
+      throw new IOException("Not a refactorings bundle");
+    }
+    int format = data.readByte();
+    if (!SchemaMigrations.canUpgrade(format)) {
+      throw new IOException("The bundle was written by a newer version of the plugin");
+    }
+    Set<RefactoringType> changed = SchemaMigrations.changedSince(data.readInt());
+    Summary summary = new Summary();
+    while (data.readByte() == ENTRY) {
+      String commitId = data.readUTF();
+      int length = data.readInt();
+      if (length < 0 || length > MAX_ENTRY_SIZE) {
+        throw new IOException("Damaged bundle: entry of " + length + " bytes");
+      }
+      byte[] bytes = new byte[length];
+      data.readFully(bytes);
+      RefactoringEntry entry;
+      try {
+        entry = RefactoringsCodec.decode(SchemaMigrations.upgrade(bytes, format), commitId);
+      } catch (IllegalArgumentException e) {
+        summary.damaged++;
+        continue;
+      }
+      if (SchemaMigrations.isOutdated(entry, changed)) {
+        summary.outdated++;
+      } else if (consumer.test(commitId, entry)) {
+        summary.imported++;
+      } else {
+        summary.kept++;
+      }
+    }
+    return summary;
+  }
+
+  /**
+   * Counts of the entries read from a bundle.
+   */
+  public static final class Summary {
+    private int imported = 0;
+    private int kept = 0;
+    private int outdated = 0;
+    private int damaged = 0;
+
+    /**
+     * Returns the number of entries taken from the bundle.
+     */
+    public int getImported() {
+      return imported;
+    }
+
+    /**
+     * Returns the number of entries for which the local result was kept.
+     */
+    public int getKept() {
+      return kept;
+    }
+
+    /**
+     * Returns the number of entries mined by detectors that have changed since.
+     */
+    public int getOutdated() {
+      return outdated;
+    }
+
+    /**
+     * Returns the number of entries that could not be decoded.
+     */
+    public int getDamaged() {
+      return damaged;
+    }
+  }
+}
@@ -0,0 +1,531 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import com.intellij.diff.fragments.DiffFragment;
+import com.intellij.diff.fragments.DiffFragmentImpl;
+import com.intellij.diff.fragments.LineFragment;
+import com.intellij.diff.fragments.LineFragmentImpl;
+import com.intellij.diff.fragments.MergeLineFragment;
+import com.intellij.diff.fragments.MergeLineFragmentImpl;
+import com.intellij.diff.util.ThreeSide;
+import com.intellij.openapi.util.TextRange;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.adapters.RefactoringType;
+import org.jetbrains.research.refactorinsight.data.Group;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+import org.jetbrains.research.refactorinsight.data.RefactoringInfo;
+import org.jetbrains.research.refactorinsight.data.RefactoringLine.VisualisationType;
+import org.jetbrains.research.refactorinsight.data.diff.DiffRequestGenerator;
+import org.jetbrains.research.refactorinsight.data.diff.MoreSidedDiffRequestGenerator;
+import org.jetbrains.research.refactorinsight.data.diff.MoreSidedDiffRequestGenerator.MoreSidedRange;
+import org.jetbrains.research.refactorinsight.data.diff.ThreeSidedDiffRequestGenerator;
+import org.jetbrains.research.refactorinsight.data.diff.ThreeSidedRange;
+import org.jetbrains.research.refactorinsight.data.diff.TwoSidedDiffRequestGenerator;
+import org.jetbrains.research.refactorinsight.folding.FoldingDescriptor;
+
+/**
+ * Binary format of a {@link RefactoringEntry}, used by the refactorings journal.
+ * Numbers are written as varints; lines and offsets are delta encoded against the previous value of the same kind,
+ * so most of them fit in a single byte. Enums are written as ordinals, and every string of an entry
+ * (paths, names, signatures) is written once in a string table and referenced by its index.
+ * Unlike the text format, null values and empty lists are preserved.
+ */
+public final class RefactoringsCodec {
+  /**
+   * Version of the format, to be increased on every incompatible change, including new constants
+   * of the enums written as ordinals, together with a migration step in {@link SchemaMigrations}.
+   */
+  public static final int FORMAT = 1;
+
+  private static final int THREE_SIDED = 1;
+  private static final int MORE_SIDED = 1 << 1;
+  private static final int HIDDEN = 1 << 2;
+  private static final int CHANGED = 1 << 3;
+  private static final int FOLDING_BEFORE = 1 << 4;
+  private static final int FOLDING_MID = 1 << 5;
+  private static final int FOLDING_AFTER = 1 << 6;
+  private static final int TIMEOUT = 1;
+  private static final int TWO_SIDED_GENERATOR = 0;
+  private static final int THREE_SIDED_GENERATOR = 1;
+  private static final int MORE_SIDED_GENERATOR = 2;
+
+  private RefactoringsCodec() {
+  }
+
+  /**
+   * Encodes an entry.
+   *
+   * @param entry entry to encode.
+   * @return encoded bytes.
+   */
+  @NotNull
+  public static byte[] encode(@NotNull RefactoringEntry entry) {
+    Output strings = new Output();
+    Output body = new Output();
+    Map<String, Integer> table = new HashMap<>();
+    StringWriter writeString = value -> {
+      if (value == null) {
+        body.writeVarInt(0);
+        return;
+      }
+      Integer index = table.get(value);
+      if (index == null) {
+        index = table.size();
+        table.put(value, index);
+        strings.writeString(value);
+      }
+      body.writeVarInt(index + 1);
+    };
+
+    writeString.write(entry.getParent());
+    body.writeVarLong(entry.getTimeStamp());
+    body.writeVarInt(entry.timeout ? TIMEOUT : 0);
+    List<RefactoringInfo> infos = entry.getRefactorings();
+    body.writeVarInt(infos == null ? 0 : infos.size() + 1);
+    if (infos != null) {
+      for (RefactoringInfo info : infos) {
+        writeInfo(body, writeString, info);
+      }
+    }
+
+    Output out = new Output();
+    out.writeVarInt(table.size());
+    out.write(strings);
+    out.write(body);
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes an entry.
+   *
+   * @param bytes    encoded entry.
+   * @param commitId commit of the entry.
+   * @return the decoded entry.
+   * @throws IllegalArgumentException if the bytes are not a valid entry.
+   */
+  @NotNull
+  public static RefactoringEntry decode(@NotNull byte[] bytes, @NotNull String commitId) {
+    try {
+      Input in = new Input(bytes);
+      String[] table = new String[in.readCount()];
+      for (int i = 0; i < table.length; i++) {
+        table[i] = in.readString();
+      }
+      StringReader readString = () -> {
+        int index = in.readVarInt();
+        return index == 0 ? null : table[index - 1];
+      };
+
+      String parent = readString.read();
+      long time = in.readVarLong();
+      boolean timeout = (in.readVarInt() & TIMEOUT) != 0;
+      RefactoringEntry entry = new RefactoringEntry(commitId, parent, time);
+      entry.setTimeout(timeout);
+      int count = in.readCount();
+      if (count > 0) {
+        List<RefactoringInfo> infos = new ArrayList<>(count - 1);
+        for (int i = 0; i < count - 1; i++) {
+          infos.add(readInfo(in, readString).setEntry(entry));
+        }
+        entry.setRefactorings(infos);
+      }
+      if (!in.isAtEnd()) {
+        throw new IllegalArgumentException("Trailing bytes in the entry of " + commitId);
+      }
+      return entry;
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Truncated entry of " + commitId, e);
+    }
+  }
+
+  private static void writeInfo(Output out, StringWriter writeString, RefactoringInfo info) {
+    out.writeVarInt(info.getType().ordinal());
+    out.writeVarInt(info.getGroup().ordinal());
+    int flags = (info.isThreeSided() ? THREE_SIDED : 0)
+        | (info.isMoreSided() ? MORE_SIDED : 0)
+        | (info.isHidden() ? HIDDEN : 0)
+        | (info.isChanged() ? CHANGED : 0)
+        | (info.getFoldingDescriptorBefore() != null ? FOLDING_BEFORE : 0)
+        | (info.getFoldingDescriptorMid() != null ? FOLDING_MID : 0)
+        | (info.getFoldingDescriptorAfter() != null ? FOLDING_AFTER : 0);
+    out.writeVarInt(flags);
+    writeString.write(info.getNameBefore());
+    writeString.write(info.getNameAfter());
+    writeString.write(info.getElementBefore());
+    writeString.write(info.getElementAfter());
+    writeString.write(info.getDetailsBefore());
+    writeString.write(info.getDetailsAfter());
+    writeString.write(info.getLeftPath());
+    writeString.write(info.getMidPath());
+    writeString.write(info.getRightPath());
+    writeFolding(out, info.getFoldingDescriptorBefore());
+    writeFolding(out, info.getFoldingDescriptorMid());
+    writeFolding(out, info.getFoldingDescriptorAfter());
+    Set<String> includes = info.getIncludingRefactorings();
+    out.writeVarInt(includes.size());
+    for (String include : includes) {
+      writeString.write(include);
+    }
+
+    DiffRequestGenerator generator = info.getRequestGenerator();
+    if (generator instanceof MoreSidedDiffRequestGenerator) {
+      out.writeVarInt(MORE_SIDED_GENERATOR);
+      writeMoreSided(out, writeString, ((MoreSidedDiffRequestGenerator) generator).getLines());
+    } else if (generator instanceof ThreeSidedDiffRequestGenerator) {
+      out.writeVarInt(THREE_SIDED_GENERATOR);
+      writeThreeSided(out, ((ThreeSidedDiffRequestGenerator) generator).getRanges());
+    } else {
+      out.writeVarInt(TWO_SIDED_GENERATOR);
+      writeTwoSided(out, ((TwoSidedDiffRequestGenerator) generator).fragments);
+    }
+  }
+
+  private static RefactoringInfo readInfo(Input in, StringReader readString) {
+    RefactoringInfo info = new RefactoringInfo()
+        .setType(RefactoringType.values[in.readVarInt()])
+        .setGroup(Group.values[in.readVarInt()]);
+    int flags = in.readVarInt();
+    info.setNameBefore(readString.read())
+        .setNameAfter(readString.read())
+        .setElementBefore(readString.read())
+        .setElementAfter(readString.read())
+        .setDetailsBefore(readString.read())
+        .setDetailsAfter(readString.read())
+        .setLeftPath(readString.read())
+        .setMidPath(readString.read())
+        .setRightPath(readString.read())
+        .setThreeSided((flags & THREE_SIDED) != 0)
+        .setMoreSided((flags & MORE_SIDED) != 0)
+        .setHidden((flags & HIDDEN) != 0)
+        .setChanged((flags & CHANGED) != 0)
+        .setFoldingDescriptorBefore((flags & FOLDING_BEFORE) != 0 ? readFolding(in) : null)
+        .setFoldingDescriptorMid((flags & FOLDING_MID) != 0 ? readFolding(in) : null)
+        .setFoldingDescriptorAfter((flags & FOLDING_AFTER) != 0 ? readFolding(in) : null);
+    int includes = in.readCount();
+    Set<String> set = new HashSet<>();
+    for (int i = 0; i < includes; i++) {
+      set.add(readString.read());
+    }
+    info.setIncludes(set);
+
+    switch (in.readVarInt()) {
+      case MORE_SIDED_GENERATOR:
+        return info.setRequestGenerator(new MoreSidedDiffRequestGenerator(readMoreSided(in, readString)));
+      case THREE_SIDED_GENERATOR:
+        return info.setRequestGenerator(new ThreeSidedDiffRequestGenerator(readThreeSided(in)));
+      case TWO_SIDED_GENERATOR:
+        return info.setRequestGenerator(new TwoSidedDiffRequestGenerator(readTwoSided(in)));
+      default:
+        throw new IllegalArgumentException("Unknown diff request generator");
+    }
+  }
+
+  private static void writeFolding(Output out, FoldingDescriptor descriptor) {
+    if (descriptor != null) {
+      out.writeSignedVarInt(descriptor.getHintOffset());
+      out.writeSignedVarInt(descriptor.getFoldingStartOffset() - descriptor.getHintOffset());
+      out.writeSignedVarInt(descriptor.getFoldingEndOffset() - descriptor.getFoldingStartOffset());
+    }
+  }
+
+  private static FoldingDescriptor readFolding(Input in) {
+    int hint = in.readSignedVarInt();
+    int start = hint + in.readSignedVarInt();
+    int end = start + in.readSignedVarInt();
+    return new FoldingDescriptor(hint, start, end);
+  }
+
+  private static void writeTwoSided(Output out, List<LineFragment> fragments) {
+    out.writeVarInt(fragments == null ? 0 : fragments.size() + 1);
+    if (fragments == null) {
+      return;
+    }
+    int[] previous = new int[4];
+    for (LineFragment fragment : fragments) {
+      previous[0] = out.writeRange(previous[0], fragment.getStartLine1(), fragment.getEndLine1());
+      previous[1] = out.writeRange(previous[1], fragment.getStartLine2(), fragment.getEndLine2());
+      previous[2] = out.writeRange(previous[2], fragment.getStartOffset1(), fragment.getEndOffset1());
+      previous[3] = out.writeRange(previous[3], fragment.getStartOffset2(), fragment.getEndOffset2());
+      List<DiffFragment> inner = fragment.getInnerFragments();
+      out.writeVarInt(inner == null ? 0 : inner.size() + 1);
+      if (inner != null) {
+        int previous1 = 0;
+        int previous2 = 0;
+        for (DiffFragment diff : inner) {
+          previous1 = out.writeRange(previous1, diff.getStartOffset1(), diff.getEndOffset1());
+          previous2 = out.writeRange(previous2, diff.getStartOffset2(), diff.getEndOffset2());
+        }
+      }
+    }
+  }
+
+  private static List<LineFragment> readTwoSided(Input in) {
+    int count = in.readCount();
+    if (count == 0) {
+      return null;
+    }
+    List<LineFragment> fragments = new ArrayList<>(count - 1);
+    int[] previous = new int[4];
+    for (int i = 0; i < count - 1; i++) {
+      int[] lines1 = in.readRange(previous[0]);
+      int[] lines2 = in.readRange(previous[1]);
+      int[] offsets1 = in.readRange(previous[2]);
+      int[] offsets2 = in.readRange(previous[3]);
+      previous[0] = lines1[0];
+      previous[1] = lines2[0];
+      previous[2] = offsets1[0];
+      previous[3] = offsets2[0];
+      int innerCount = in.readCount();
+      List<DiffFragment> inner = null;
+      if (innerCount > 0) {
+        inner = new ArrayList<>(innerCount - 1);
+        int[] range1 = {0, 0};
+        int[] range2 = {0, 0};
+        for (int j = 0; j < innerCount - 1; j++) {
+          range1 = in.readRange(range1[0]);
+          range2 = in.readRange(range2[0]);
+          inner.add(new DiffFragmentImpl(range1[0], range1[1], range2[0], range2[1]));
+        }
+      }
+      fragments.add(new LineFragmentImpl(lines1[0], lines1[1], lines2[0], lines2[1],
+                                         offsets1[0], offsets1[1], offsets2[0], offsets2[1], inner));
+    }
+    return fragments;
+  }
+
+  private static void writeThreeSided(Output out, List<ThreeSidedRange> ranges) {
+    out.writeVarInt(ranges == null ? 0 : ranges.size() + 1);
+    if (ranges == null) {
+      return;
+    }
+    int[] previous = new int[3];
+    for (ThreeSidedRange range : ranges) {
+      out.writeVarInt(range.getType().ordinal());
+      MergeLineFragment fragment = range.getFragment();
+      ThreeSide[] sides = {ThreeSide.LEFT, ThreeSide.BASE, ThreeSide.RIGHT};
+      for (int i = 0; i < sides.length; i++) {
+        previous[i] = out.writeRange(previous[i], fragment.getStartLine(sides[i]), fragment.getEndLine(sides[i]));
+      }
+      writeTextRanges(out, range.getLeft());
+      writeTextRanges(out, range.getMid());
+      writeTextRanges(out, range.getRight());
+    }
+  }
+
+  private static List<ThreeSidedRange> readThreeSided(Input in) {
+    int count = in.readCount();
+    if (count == 0) {
+      return null;
+    }
+    List<ThreeSidedRange> ranges = new ArrayList<>(count - 1);
+    int[][] lines = {{0, 0}, {0, 0}, {0, 0}};
+    for (int i = 0; i < count - 1; i++) {
+      VisualisationType type = VisualisationType.values()[in.readVarInt()];
+      for (int side = 0; side < lines.length; side++) {
+        lines[side] = in.readRange(lines[side][0]);
+      }
+      MergeLineFragment fragment = new MergeLineFragmentImpl(lines[0][0], lines[0][1], lines[1][0], lines[1][1],
+                                                             lines[2][0], lines[2][1]);
+      List<TextRange> left = readTextRanges(in);
+      List<TextRange> mid = readTextRanges(in);
+      List<TextRange> right = readTextRanges(in);
+      ranges.add(new ThreeSidedRange(left, mid, right, type, fragment));
+    }
+    return ranges;
+  }
+
+  private static void writeTextRanges(Output out, List<TextRange> ranges) {
+    out.writeVarInt(ranges.size());
+    int previous = 0;
+    for (TextRange range : ranges) {
+      previous = out.writeRange(previous, range.getStartOffset(), range.getEndOffset());
+    }
+  }
+
+  private static List<TextRange> readTextRanges(Input in) {
+    int count = in.readCount();
+    List<TextRange> ranges = new ArrayList<>(count);
+    int[] range = {0, 0};
+    for (int i = 0; i < count; i++) {
+      range = in.readRange(range[0]);
+      ranges.add(new TextRange(range[0], range[1]));
+    }
+    return ranges;
+  }
+
+  private static void writeMoreSided(Output out, StringWriter writeString, List<MoreSidedRange> ranges) {
+    out.writeVarInt(ranges == null ? 0 : ranges.size() + 1);
+    if (ranges == null) {
+      return;
+    }
+    for (MoreSidedRange range : ranges) {
+      out.writeRange(0, range.startLineLeft, range.endLineLeft);
+      out.writeRange(0, range.startOffsetLeft, range.endOffsetLeft);
+      out.writeRange(0, range.startLineRight, range.endLineRight);
+      out.writeRange(0, range.startOffsetRight, range.endOffsetRight);
+      writeString.write(range.leftPath);
+    }
+  }
+
+  private static List<MoreSidedRange> readMoreSided(Input in, StringReader readString) {
+    int count = in.readCount();
+    if (count == 0) {
+      return null;
+    }
+    List<MoreSidedRange> ranges = new ArrayList<>(count - 1);
+    for (int i = 0; i < count - 1; i++) {
+      int[] linesLeft = in.readRange(0);
+      int[] offsetsLeft = in.readRange(0);
+      int[] linesRight = in.readRange(0);
+      int[] offsetsRight = in.readRange(0);
+      ranges.add(new MoreSidedRange(linesLeft[0], linesLeft[1], offsetsLeft[0], offsetsLeft[1],
+                                    linesRight[0], linesRight[1], offsetsRight[0], offsetsRight[1],
+                                    readString.read()));
+    }
+    return ranges;
+  }
+
+  private interface StringWriter {
+    void write(String value);
+  }
+
+  private interface StringReader {
+    String read();
+  }
+
+  /**
+   * Growable byte buffer with varint writers.
+   */
+  private static final class Output {
+    private byte[] buffer = new byte[64];
+    private int size = 0;
+
+    void writeByte(int value) {
+      if (size == buffer.length) {
+        buffer = Arrays.copyOf(buffer, size * 2);
+      }
+      buffer[size++] = (byte) value;
+    }
+
+    void writeVarLong(long value) {
+      while ((value & ~0x7FL) != 0) {
+        writeByte((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      writeByte((int) value);
+    }
+
+    void writeVarInt(int value) {
+      writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    void writeSignedVarInt(int value) {
+      writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    /**
+     * Writes a range as the distance of its start from the previous start and its length.
+     *
+     * @return the start of the range, to be used as the next previous start.
+     */
+    int writeRange(int previousStart, int start, int end) {
+      writeSignedVarInt(start - previousStart);
+      writeSignedVarInt(end - start);
+      return start;
+    }
+
+    void writeString(String value) {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      writeVarInt(bytes.length);
+      write(bytes, bytes.length);
+    }
+
+    void write(Output other) {
+      write(other.buffer, other.size);
+    }
+
+    private void write(byte[] bytes, int length) {
+      if (size + length > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+      }
+      System.arraycopy(bytes, 0, buffer, size, length);
+      size += length;
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(buffer, size);
+    }
+  }
+
+  /**
+   * Reader of the bytes written by {@link Output}.
+   */
+  private static final class Input {
+    private final byte[] buffer;
+    private int position = 0;
+
+    Input(byte[] buffer) {
+      this.buffer = buffer;
+    }
+
+    long readVarLong() {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = buffer[position++];
+        result |= (long) (b & 0x7F) << shift;
+        if (b >= 0) {
+          return result;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+
+    int readVarInt() {
+      return (int) readVarLong();
+    }
+
+    int readSignedVarInt() {
+      int value = readVarInt();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Reads the size of a list, which cannot be larger than the number of bytes left.
+     */
+    int readCount() {
+      int count = readVarInt();
+      if (count < 0 || count > buffer.length - position) {
+        throw new IndexOutOfBoundsException("Invalid count " + count + " at " + position);
+      }
+      return count;
+    }
+
+    int[] readRange(int previousStart) {
+      int start = previousStart + readSignedVarInt();
+      return new int[] {start, start + readSignedVarInt()};
+    }
+
+    String readString() {
+      int length = readVarInt();
+      if (length < 0 || position + length > buffer.length) {
+        throw new IndexOutOfBoundsException("String of " + length + " bytes at " + position);
+      }
+      String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+      position += length;
+      return value;
+    }
+
+    boolean isAtEnd() {
+      return position == buffer.length;
+    }
+  }
+}
@@ -0,0 +1,777 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.ServiceManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.research.refactorinsight.adapters.RefactoringType;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+
+/**
+ * Append-only journal of the mined refactorings, kept in the IDE system directory.
+ * Entries are stored in the binary format of {@link RefactoringsCodec}.
+ * Every flush appends only the entries that changed since the previous one, so the cost of saving
+ * is proportional to the number of newly mined commits rather than to the size of the store.
+ * Later records of a commit replace earlier ones; once the journal holds too many stale records
+ * it is compacted into a snapshot of the live entries.
+ * Writes happen on a dedicated background thread, never on the EDT.
+ *
+ * <p>Loading only indexes where the record of each commit lies in the file, without decoding it.
+ * Entries are decoded on first access and kept in a small LRU cache,
+ * so the cost of opening a project does not grow with the size of its mined history.
+ *
+ * <p>Every record starts with a marker and carries a checksum. Records damaged on disk are skipped
+ * without losing the rest of the journal, and their commits are reported to be mined again.
+ *
+ * <p>The header records the format of the entries and the version of the detectors they were mined with.
+ * Neither invalidates the journal when the plugin is updated: see {@link SchemaMigrations}.
+ */
+@Service
+public final class RefactoringsJournal {
+  private static final int MAGIC = 0x52464a35;
+  private static final int SYNC = 0x52495243;
+  private static final Pattern COMMIT_ID = Pattern.compile("[0-9a-f]{40}");
+  private static final byte PUT = 1;
+  private static final byte REMOVE = 2;
+  private static final int COMPACTION_SLACK = 1000;
+  private static final int CACHE_SIZE = 256;
+
+  private final Logger logger = Logger.getInstance(RefactoringsJournal.class);
+  private final ExecutorService writer =
+      AppExecutorUtil.createBoundedApplicationPoolExecutor("RefactorInsight Journal", 1);
+  private final Path file;
+  private final List<String> damaged = new ArrayList<>();
+  private final Map<String, RefactoringEntry> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, RefactoringEntry> eldest) {
+      return size() > CACHE_SIZE;
+    }
+  };
+  private volatile Map<String, Location> index = new ConcurrentHashMap<>();
+  private volatile FileChannel channel;
+  private volatile int format = RefactoringsCodec.FORMAT;
+  private int detector = SchemaMigrations.DETECTOR_VERSION;
+  private boolean loaded = false;
+  private int records = 0;
+
+  /**
+   * Creates the journal of a project.
+   *
+   * @param project current project.
+   */
+  public RefactoringsJournal(@NotNull Project project) {
+    this(Paths.get(PathManager.getSystemPath(), "refactorinsight", project.getLocationHash(), "refactorings.journal"));
+  }
+
+  /**
+   * Creates a journal kept in the given file.
+   *
+   * @param file journal file, created on the first write.
+   */
+  RefactoringsJournal(@NotNull Path file) {
+    this.file = file;
+  }
+
+  public static RefactoringsJournal getInstance(@NotNull Project project) {
+    return ServiceManager.getService(project, RefactoringsJournal.class);
+  }
+
+  @NotNull
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Indexes the journal and attaches it to the map, which then reads the stored entries through it.
+   * Entries written in an older format are upgraded when they are read, see {@link #upgrade}.
+   * A journal that this version of the plugin cannot read is discarded.
+   *
+   * @param map map to attach to.
+   */
+  public synchronized void load(@NotNull JournaledMap map) {
+    loaded = true;
+    close();
+    map.attach(this);
+    if (!Files.exists(file)) {
+      return;
+    }
+    Map<String, Location> entries = new ConcurrentHashMap<>();
+    Recovery recovery = new Recovery();
+    boolean stale = false;
+    try (FileChannel reader = FileChannel.open(file, StandardOpenOption.READ)) {
+      CountingInputStream counter = new CountingInputStream(reader, 0);
+      DataInputStream in = new DataInputStream(counter);
+      stale = in.readInt() != MAGIC;
+      if (!stale) {
+        format = in.readByte();
+        detector = in.readInt();
+        stale = !SchemaMigrations.canUpgrade(format);
+      }
+      if (!stale) {
+        indexRecords(reader, counter.getCount(), entries, recovery);
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Cannot read refactorings journal " + file, e);
+      recovery.regions++;
+    }
+    if (stale) {
+      logger.info("Discarding refactorings journal of an unknown format: " + file);
+      reset();
+      return;
+    }
+    index = entries;
+    open();
+    if (recovery.regions > 0) {
+      recovery.commits.removeAll(entries.keySet());
+      damaged.addAll(recovery.commits);
+      logger.warn("Recovered refactorings journal " + file + ": skipped " + recovery.regions
+          + " damaged regions (" + recovery.bytes + " bytes), kept " + entries.size()
+          + " commits, " + recovery.commits.size() + " commits to mine again " + recovery.commits);
+      compact(map);
+    }
+  }
+
+  /**
+   * Indexes the records of the journal.
+   * A record that is truncated or does not match its checksum is skipped, and reading resumes
+   * at the next record marker, so a damaged region only loses the records it overlaps.
+   */
+  private void indexRecords(FileChannel reader, long start, Map<String, Location> entries, Recovery recovery)
+      throws IOException {
+    long size = reader.size();
+    CountingInputStream counter = new CountingInputStream(reader, start);
+    DataInputStream in = new DataInputStream(counter);
+    while (counter.getCount() < size) {
+      long recordStart = counter.getCount();
+      String commitId = null;
+      try {
+        if (in.readInt() != SYNC) {
+          throw new IOException("No record marker");
+        }
+        byte kind = in.readByte();
+        commitId = in.readUTF();
+        if (kind == PUT) {
+          int refactorings = in.readInt();
+          int length = in.readInt();
+          int checksum = in.readInt();
+          if (length < 0 || length > size - counter.getCount()) {
+            throw new IOException("Record length out of bounds");
+          }
+          long offset = counter.getCount();
+          byte[] bytes = new byte[length];
+          in.readFully(bytes);
+          if (checksum != checksum(kind, commitId, refactorings, bytes)) {
+            throw new IOException("Checksum mismatch");
+          }
+          entries.put(commitId, new Location(offset, length, refactorings, checksum));
+        } else if (kind == REMOVE) {
+          if (in.readInt() != checksum(kind, commitId, 0, new byte[0])) {
+            throw new IOException("Checksum mismatch");
+          }
+          entries.remove(commitId);
+        } else {
+          throw new IOException("Unknown record kind " + kind);
+        }
+        records++;
+      } catch (IOException e) {
+        if (commitId != null && COMMIT_ID.matcher(commitId).matches()) {
+          entries.remove(commitId);
+          recovery.commits.add(commitId);
+        }
+        long next = findSync(reader, recordStart + 1, size);
+        recovery.regions++;
+        recovery.bytes += next - recordStart;
+        counter = new CountingInputStream(reader, next);
+        in = new DataInputStream(counter);
+      }
+    }
+  }
+
+  /**
+   * Finds the next record marker.
+   *
+   * @return its position, or the end of the file if there is none.
+   */
+  private static long findSync(FileChannel reader, long from, long size) throws IOException {
+    CountingInputStream in = new CountingInputStream(reader, from);
+    int window = 0;
+    for (long position = from; position < size; position++) {
+      int b = in.read();
+      if (b == -1) {
+        break;
+      }
+      window = (window << 8) | b;
+      if (position - from >= 3 && window == SYNC) {
+        return position - 3;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Returns and forgets the commits whose records were damaged or could not be upgraded.
+   *
+   * @return commit ids.
+   */
+  @NotNull
+  private List<String> drainDamaged() {
+    List<String> result = new ArrayList<>(damaged);
+    damaged.clear();
+    return result;
+  }
+
+  /**
+   * Checks whether an entry is stored for a commit.
+   *
+   * @param commitId commit id.
+   * @return true if the journal holds an entry for the commit.
+   */
+  public boolean contains(@NotNull String commitId) {
+    return index.containsKey(commitId);
+  }
+
+  /**
+   * Returns the commits that have a stored entry.
+   *
+   * @return commit ids.
+   */
+  @NotNull
+  public Set<String> getCommits() {
+    return new HashSet<>(index.keySet());
+  }
+
+  /**
+   * Returns the number of refactorings of a stored entry, without decoding it.
+   *
+   * @param commitId commit id.
+   * @return number of refactorings, or -1 if no entry is stored for the commit.
+   */
+  public int getRefactoringCount(@NotNull String commitId) {
+    Location location = index.get(commitId);
+    return location == null ? -1 : location.refactorings;
+  }
+
+  /**
+   * Reads a stored entry, decoding it on first access.
+   *
+   * @param commitId commit id.
+   * @return the stored entry, or null if there is none or it cannot be read.
+   */
+  @Nullable
+  public RefactoringEntry read(@NotNull String commitId) {
+    synchronized (cache) {
+      RefactoringEntry entry = cache.get(commitId);
+      if (entry != null) {
+        return entry;
+      }
+    }
+    byte[] bytes = readEncoded(commitId);
+    if (bytes == null) {
+      return null;
+    }
+    try {
+      RefactoringEntry entry = RefactoringsCodec.decode(bytes, commitId);
+      synchronized (cache) {
+        cache.put(commitId, entry);
+      }
+      return entry;
+    } catch (IllegalArgumentException e) {
+      logger.warn("Cannot decode the refactorings of " + commitId + " from " + file, e);
+      return null;
+    }
+  }
+
+  /**
+   * Reads a stored entry without decoding it.
+   *
+   * @param commitId commit id.
+   * @return the entry in the current format of {@link RefactoringsCodec}, or null if there is none
+   *     or it cannot be read.
+   */
+  @Nullable
+  public byte[] readEncoded(@NotNull String commitId) {
+    // the channel is read first: a compaction closes the old channel before it publishes the new index and format
+    FileChannel current = channel;
+    int currentFormat = format;
+    Location location = index.get(commitId);
+    if (location == null) {
+      return null;
+    }
+    if (current != null) {
+      try {
+        return readEncoded(current, currentFormat, commitId, location);
+      } catch (ClosedChannelException e) {
+        // the journal is being compacted: wait for it below
+      }
+    }
+    // the journal is being rewritten or created, and is consistent again once the writer releases it
+    synchronized (this) {
+      location = index.get(commitId);
+      if (location == null || channel == null) {
+        return null;
+      }
+      try {
+        return readEncoded(channel, format, commitId, location);
+      } catch (ClosedChannelException e) {
+        logger.warn("Cannot read the refactorings of " + commitId + " from " + file, e);
+        return null;
+      }
+    }
+  }
+
+  @Nullable
+  private byte[] readEncoded(FileChannel channel, int format, String commitId, Location location)
+      throws ClosedChannelException {
+    try {
+      byte[] bytes = readBytes(channel, location);
+      if (checksum(PUT, commitId, location.refactorings, bytes) != location.checksum) {
+        throw new IOException("Checksum mismatch");
+      }
+      return format == RefactoringsCodec.FORMAT ? bytes : SchemaMigrations.upgrade(bytes, format);
+    } catch (ClosedChannelException e) {
+      throw e;
+    } catch (IOException | IllegalArgumentException e) {
+      logger.warn("Cannot read the refactorings of " + commitId + " from " + file, e);
+      return null;
+    }
+  }
+
+  private static byte[] readBytes(FileChannel channel, Location location) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(location.length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, location.offset + buffer.position()) < 0) {
+        throw new EOFException();
+      }
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Forgets the stored entry of a commit. The removal is written on the next flush.
+   *
+   * @param commitId commit id.
+   */
+  void forget(@NotNull String commitId) {
+    index.remove(commitId);
+    synchronized (cache) {
+      cache.remove(commitId);
+    }
+  }
+
+  /**
+   * Forgets all stored entries. The journal is deleted on the next flush.
+   */
+  void forgetAll() {
+    index.clear();
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  /**
+   * Schedules the changes of the map to be appended in the background.
+   *
+   * @param map journaled map.
+   */
+  public void flushAsync(@NotNull JournaledMap map) {
+    writer.execute(() -> flush(map));
+  }
+
+  /**
+   * Appends the changes of the map to the journal, and compacts it if it has grown too large.
+   *
+   * @param map journaled map.
+   */
+  public synchronized void flush(@NotNull JournaledMap map) {
+    if (!loaded) {
+      return;
+    }
+    if (map.drainCleared()) {
+      reset();
+    }
+    List<String> changes = map.drainChanges();
+    if (changes.isEmpty()) {
+      return;
+    }
+    if (format != RefactoringsCodec.FORMAT) {
+      // records are appended in the current format only
+      compact(map);
+    }
+    if (!write(changes, map::getLive)) {
+      return;
+    }
+    if (records > 2 * index.size() + COMPACTION_SLACK) {
+      compact(map);
+    }
+  }
+
+  /**
+   * Appends entries directly to the journal, without holding them in memory.
+   * Used to import stored data in batches.
+   *
+   * @param map     journaled map.
+   * @param entries entries by commit id.
+   */
+  public synchronized void append(@NotNull JournaledMap map, @NotNull Map<String, RefactoringEntry> entries) {
+    if (!loaded || entries.isEmpty()) {
+      return;
+    }
+    if (format != RefactoringsCodec.FORMAT) {
+      compact(map);
+    }
+    write(new ArrayList<>(entries.keySet()), entries::get);
+  }
+
+  /**
+   * Appends the records of the commits and updates the index.
+   * The new locations are published once the records are on disk, so readers never see a partial record.
+   *
+   * @return true if the records were written.
+   */
+  private boolean write(List<String> commitIds, Function<String, RefactoringEntry> entries) {
+    Map<String, Location> written = new HashMap<>();
+    Set<String> removed = new HashSet<>();
+    try {
+      boolean exists = Files.exists(file);
+      if (!exists) {
+        Files.createDirectories(file.getParent());
+      }
+      long base = exists ? Files.size(file) : 0;
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+        if (!exists) {
+          writeHeader(out);
+        }
+        for (String commitId : commitIds) {
+          Location location = writeRecord(out, base, commitId, entries.apply(commitId));
+          if (location != null) {
+            written.put(commitId, location);
+            removed.remove(commitId);
+          } else {
+            written.remove(commitId);
+            removed.add(commitId);
+          }
+        }
+      }
+    } catch (IOException e) {
+      logger.warn("Cannot write refactorings journal " + file, e);
+      return false;
+    }
+    if (channel == null) {
+      open();
+    }
+    index.putAll(written);
+    removed.forEach(index::remove);
+    return true;
+  }
+
+  /**
+   * Brings the journal up to date with this version of the plugin. Meant to run in the background after loading.
+   * Entries written in an older format are rewritten in the current one.
+   * If the detectors changed since the entries were mined, the entries with refactorings of the changed types
+   * are removed, to be mined again.
+   *
+   * @param map journaled map.
+   * @return commits to mine again: outdated ones, and ones that were damaged or could not be upgraded.
+   */
+  @NotNull
+  public List<String> upgrade(@NotNull JournaledMap map) {
+    return upgrade(map, SchemaMigrations::changedSince);
+  }
+
+  /**
+   * Brings the journal up to date, with the given record of the detector changes.
+   *
+   * @param map          journaled map.
+   * @param changedSince refactoring types whose detection changed after a detector version.
+   * @return commits to mine again.
+   */
+  @NotNull
+  synchronized List<String> upgrade(@NotNull JournaledMap map,
+                                    @NotNull IntFunction<Set<RefactoringType>> changedSince) {
+    List<String> outdated = new ArrayList<>();
+    if (!loaded) {
+      return outdated;
+    }
+    if (detector < SchemaMigrations.DETECTOR_VERSION) {
+      Set<RefactoringType> changed = changedSince.apply(detector);
+      if (!changed.isEmpty()) {
+        for (String commitId : new ArrayList<>(index.keySet())) {
+          if (map.getLive(commitId) != null || getRefactoringCount(commitId) == 0) {
+            continue;
+          }
+          RefactoringEntry entry = read(commitId);
+          if (entry == null || SchemaMigrations.isOutdated(entry, changed)) {
+            outdated.add(commitId);
+          }
+        }
+        outdated.forEach(map::remove);
+        logger.info(outdated.size() + " commits have refactorings of types detected differently now: " + changed);
+      }
+      detector = SchemaMigrations.DETECTOR_VERSION;
+      compact(map);
+    } else if (format != RefactoringsCodec.FORMAT) {
+      compact(map);
+    }
+    outdated.addAll(drainDamaged());
+    return outdated;
+  }
+
+  /**
+   * Rewrites the journal as a snapshot of the current entries.
+   * Records of entries that are not held in memory are copied as they are, without decoding them.
+   *
+   * @param map journaled map.
+   */
+  public synchronized void compact(@NotNull JournaledMap map) {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    Map<String, Location> compacted = new ConcurrentHashMap<>();
+    int written = 0;
+    try {
+      Files.createDirectories(file.getParent());
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        writeHeader(out);
+        for (String commitId : map.liveKeys()) {
+          Location location = writeRecord(out, 0, commitId, map.getLive(commitId));
+          if (location != null) {
+            compacted.put(commitId, location);
+            written++;
+          }
+        }
+        for (Map.Entry<String, Location> stored : index.entrySet()) {
+          Location location = stored.getValue();
+          if (compacted.containsKey(stored.getKey()) || channel == null) {
+            continue;
+          }
+          byte[] bytes = readBytes(channel, location);
+          int checksum = location.checksum;
+          if (format != RefactoringsCodec.FORMAT) {
+            try {
+              bytes = SchemaMigrations.upgrade(bytes, format);
+            } catch (IllegalArgumentException e) {
+              logger.warn("Cannot upgrade the refactorings of " + stored.getKey(), e);
+              damaged.add(stored.getKey());
+              continue;
+            }
+            checksum = checksum(PUT, stored.getKey(), location.refactorings, bytes);
+          }
+          compacted.put(stored.getKey(), writePut(out, 0, stored.getKey(), location.refactorings, bytes, checksum));
+          written++;
+        }
+      }
+      FileChannel compactedChannel = FileChannel.open(temp, StandardOpenOption.READ);
+      try {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        compactedChannel.close();
+        throw e;
+      }
+      // readers holding the old channel fail on it once it is closed, and retry with the new index under the lock
+      close();
+      index = compacted;
+      format = RefactoringsCodec.FORMAT;
+      records = written;
+      channel = compactedChannel;
+    } catch (IOException e) {
+      logger.warn("Cannot compact refactorings journal " + file, e);
+    }
+    if (channel == null) {
+      open();
+    }
+  }
+
+  /**
+   * Deletes the journal.
+   */
+  public synchronized void reset() {
+    close();
+    forgetAll();
+    format = RefactoringsCodec.FORMAT;
+    detector = SchemaMigrations.DETECTOR_VERSION;
+    records = 0;
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.warn("Cannot delete refactorings journal " + file, e);
+    }
+  }
+
+  private void open() {
+    try {
+      if (Files.exists(file)) {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+      }
+    } catch (IOException e) {
+      logger.warn("Cannot open refactorings journal " + file, e);
+    }
+  }
+
+  private void close() {
+    FileChannel current = channel;
+    channel = null;
+    if (current != null) {
+      try {
+        current.close();
+      } catch (IOException e) {
+        logger.warn(e);
+      }
+    }
+  }
+
+  private void writeHeader(DataOutputStream out) throws IOException {
+    out.writeInt(MAGIC);
+    out.writeByte(RefactoringsCodec.FORMAT);
+    out.writeInt(detector);
+  }
+
+  /**
+   * Writes the record of a commit.
+   *
+   * @return location of the written entry in the file starting at base, or null for a removal.
+   */
+  @Nullable
+  private Location writeRecord(DataOutputStream out, long base, String commitId, RefactoringEntry entry)
+      throws IOException {
+    if (entry == null) {
+      records++;
+      out.writeInt(SYNC);
+      out.writeByte(REMOVE);
+      out.writeUTF(commitId);
+      out.writeInt(checksum(REMOVE, commitId, 0, new byte[0]));
+      return null;
+    }
+    byte[] bytes = RefactoringsCodec.encode(entry);
+    int refactorings = entry.getRefactorings() == null ? 0 : entry.getRefactorings().size();
+    return writePut(out, base, commitId, refactorings, bytes, checksum(PUT, commitId, refactorings, bytes));
+  }
+
+  private Location writePut(DataOutputStream out, long base, String commitId, int refactorings, byte[] bytes,
+                            int checksum) throws IOException {
+    records++;
+    out.writeInt(SYNC);
+    out.writeByte(PUT);
+    out.writeUTF(commitId);
+    out.writeInt(refactorings);
+    out.writeInt(bytes.length);
+    out.writeInt(checksum);
+    Location location = new Location(base + out.size(), bytes.length, refactorings, checksum);
+    out.write(bytes);
+    return location;
+  }
+
+  /**
+   * Computes the checksum of a record, covering its kind, commit id, refactoring count and entry.
+   */
+  private static int checksum(byte kind, String commitId, int refactorings, byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(kind);
+    crc.update(commitId.getBytes(StandardCharsets.UTF_8));
+    crc.update(ByteBuffer.allocate(Integer.BYTES).putInt(0, refactorings));
+    crc.update(bytes);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Location of an encoded entry in the journal.
+   */
+  private static final class Location {
+    private final long offset;
+    private final int length;
+    private final int refactorings;
+    private final int checksum;
+
+    Location(long offset, int length, int refactorings, int checksum) {
+      this.offset = offset;
+      this.length = length;
+      this.refactorings = refactorings;
+      this.checksum = checksum;
+    }
+  }
+
+  /**
+   * What was lost while reading a damaged journal.
+   */
+  private static final class Recovery {
+    private final Set<String> commits = new LinkedHashSet<>();
+    private int regions = 0;
+    private long bytes = 0;
+  }
+
+  /**
+   * Counts the bytes read through it, to find the offsets of the records.
+   */
+  private static final class CountingInputStream extends FilterInputStream {
+    private long count;
+
+    CountingInputStream(FileChannel channel, long position) throws IOException {
+      super(new BufferedInputStream(Channels.newInputStream(channel.position(position))));
+      count = position;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        count += n;
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count += skipped;
+      return skipped;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.research.refactorinsight.adapters.RefactoringType;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+import org.jetbrains.research.refactorinsight.data.RefactoringInfo;
+
+/**
+ * Upgrades of the stored refactorings between plugin versions.
+ * Changes of the storage format are handled by migration steps that rewrite stored entries,
+ * so a plugin update does not throw the mined history away.
+ * Changes of the detectors are recorded by the refactoring types they affect,
+ * so that only the commits with refactorings of these types have to be mined again.
+ */
+public final class SchemaMigrations {
+  /**
+   * Version of the detectors, to be increased together with an entry in {@link #DETECTOR_CHANGES}
+   * whenever the refactorings detected for a commit change.
+   */
+  public static final int DETECTOR_VERSION = 1;
+
+  /**
+   * Migration steps: the step at index i upgrades entries from format i + 1 to format i + 2.
+   * A step has to be added for every increase of {@link RefactoringsCodec#FORMAT}.
+   */
+  private static final List<Migration> STEPS = Collections.emptyList();
+
+  /**
+   * Refactoring types whose detection changed, by the detector version that changed them.
+   */
+  private static final Map<Integer, Set<RefactoringType>> DETECTOR_CHANGES = Collections.emptyMap();
+
+  private SchemaMigrations() {
+  }
+
+  /**
+   * Upgrades an encoded entry by one format version.
+   */
+  @FunctionalInterface
+  public interface Migration {
+    /**
+     * Rewrites an encoded entry in the next format.
+     *
+     * @param entry entry in the previous format.
+     * @return entry in the next format.
+     * @throws IllegalArgumentException if the entry is malformed.
+     */
+    @NotNull
+    byte[] upgrade(@NotNull byte[] entry);
+  }
+
+  /**
+   * Checks whether entries written in a format can be read by this version of the plugin.
+   *
+   * @param format format of the stored entries.
+   * @return true if the entries can be upgraded to the current format.
+   */
+  public static boolean canUpgrade(int format) {
+    return format >= 1 && format <= RefactoringsCodec.FORMAT && STEPS.size() >= RefactoringsCodec.FORMAT - format;
+  }
+
+  /**
+   * Upgrades an encoded entry to the current format.
+   *
+   * @param entry  encoded entry.
+   * @param format format it was written in.
+   * @return the entry in the current format.
+   */
+  @NotNull
+  public static byte[] upgrade(@NotNull byte[] entry, int format) {
+    for (int version = format; version < RefactoringsCodec.FORMAT; version++) {
+      entry = STEPS.get(version - 1).upgrade(entry);
+    }
+    return entry;
+  }
+
+  /**
+   * Returns the refactoring types whose detection changed after the given detector version.
+   *
+   * @param detector detector version the entries were mined with.
+   * @return changed refactoring types.
+   */
+  @NotNull
+  public static Set<RefactoringType> changedSince(int detector) {
+    Set<RefactoringType> changed = EnumSet.noneOf(RefactoringType.class);
+    DETECTOR_CHANGES.forEach((version, types) -> {
+      if (version > detector) {
+        changed.addAll(types);
+      }
+    });
+    return changed;
+  }
+
+  /**
+   * Checks whether an entry has refactorings of changed types, and has to be mined again.
+   *
+   * @param entry   stored entry.
+   * @param changed refactoring types whose detection changed, see {@link #changedSince}.
+   * @return true if the entry is outdated.
+   */
+  public static boolean isOutdated(@NotNull RefactoringEntry entry, @NotNull Set<RefactoringType> changed) {
+    if (changed.isEmpty()) {
+      return false;
+    }
+    for (RefactoringInfo info : entry.getRefactorings()) {
+      if (changed.contains(info.getType())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,183 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+
+/**
+ * Index of the mined commits by the key of their source changes,
+ * see {@link org.jetbrains.research.refactorinsight.processors.ChangedSources#getKey()}.
+ * Cherry-picked, rebased and amended commits get new ids but usually make the same changes,
+ * so their refactorings are copied from the commit mined before instead of being mined again.
+ * The index is kept in a small file next to the journal, one line per mined commit.
+ * Keys are dropped together with their commits, see {@link #forget} and {@link #clear}.
+ */
+public class SourceChangeIndex {
+  private static final int COMPACTION_SLACK = 1000;
+
+  private final Logger logger = Logger.getInstance(SourceChangeIndex.class);
+  private final Path file;
+  private Map<String, String> commits;
+  private int lines;
+
+  /**
+   * Creates the index of the refactorings stored in a journal.
+   *
+   * @param journal refactorings journal.
+   */
+  public SourceChangeIndex(@NotNull RefactoringsJournal journal) {
+    this.file = journal.getFile().resolveSibling("changes");
+  }
+
+  /**
+   * Looks up a commit that made the same changes, and copies its refactorings to the given commit.
+   *
+   * @param key       key of the changes.
+   * @param map       stored refactorings.
+   * @param commitId  commit to create the entry for.
+   * @param parent    parent of the commit.
+   * @param timestamp timestamp of the commit.
+   * @return an entry of the given commit, or null if no complete result for the same changes is stored.
+   */
+  @Nullable
+  public RefactoringEntry find(@NotNull String key, @NotNull Map<String, RefactoringEntry> map,
+                               @NotNull String commitId, String parent, long timestamp) {
+    String source;
+    synchronized (this) {
+      source = load().get(key);
+    }
+    if (source == null || source.equals(commitId)) {
+      return null;
+    }
+    RefactoringEntry mined = map.get(source);
+    if (mined == null) {
+      // the commit was removed meanwhile: the key is dropped from the file by the next rewrite
+      synchronized (this) {
+        load().remove(key, source);
+      }
+      return null;
+    }
+    if (mined.timeout) {
+      // mined again with a timeout
+      return null;
+    }
+    // decoding a copy gives the new entry its own refactorings, which refer back to the entry they belong to
+    RefactoringEntry copy = RefactoringsCodec.decode(RefactoringsCodec.encode(mined), commitId);
+    RefactoringEntry entry = RefactoringEntry.createEmptyEntry(commitId, parent, timestamp);
+    entry.addRefactorings(copy.getRefactorings());
+    return entry;
+  }
+
+  /**
+   * Records the commit that was mined for the given changes.
+   *
+   * @param key      key of the changes.
+   * @param commitId mined commit.
+   */
+  public synchronized void record(@NotNull String key, @NotNull String commitId) {
+    if (commitId.equals(load().put(key, commitId))) {
+      return;
+    }
+    try {
+      Files.createDirectories(file.getParent());
+      if (lines - commits.size() > COMPACTION_SLACK) {
+        rewrite();
+        return;
+      }
+      try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+        writer.write(key + " " + commitId);
+        writer.newLine();
+      }
+      lines++;
+    } catch (IOException e) {
+      logger.warn("Cannot update " + file, e);
+    }
+  }
+
+  /**
+   * Drops the keys of removed commits.
+   *
+   * @param commitIds removed commits.
+   */
+  public synchronized void forget(@NotNull Collection<String> commitIds) {
+    if (commitIds.isEmpty()) {
+      return;
+    }
+    Set<String> removed = new HashSet<>(commitIds);
+    if (!load().values().removeIf(removed::contains)) {
+      return;
+    }
+    try {
+      rewrite();
+    } catch (IOException e) {
+      logger.warn("Cannot update " + file, e);
+    }
+  }
+
+  /**
+   * Drops all keys, when all the stored refactorings are removed.
+   */
+  public synchronized void clear() {
+    commits = new HashMap<>();
+    lines = 0;
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.warn("Cannot delete " + file, e);
+    }
+  }
+
+  private Map<String, String> load() {
+    if (commits != null) {
+      return commits;
+    }
+    commits = new HashMap<>();
+    lines = 0;
+    if (!Files.exists(file)) {
+      return commits;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(" ");
+        if (parts.length == 2) {
+          // later lines are newer
+          commits.put(parts[0], parts[1]);
+        }
+        lines++;
+      }
+    } catch (IOException e) {
+      logger.warn("Cannot read " + file, e);
+    }
+    return commits;
+  }
+
+  private void rewrite() throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+    try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, String> entry : commits.entrySet()) {
+        writer.write(entry.getKey() + " " + entry.getValue());
+        writer.newLine();
+      }
+    }
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    lines = commits.size();
+  }
+}
@@ -0,0 +1,191 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import com.intellij.openapi.diagnostic.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.RevWalkException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Removes the stored refactorings of commits that no ref can reach any more,
+ * e.g. after rebases, force-pushes or deleted branches.
+ * A commit is only removed after it stayed unreachable for a grace period, so that entries survive
+ * a branch that is briefly deleted and pushed again. The time a commit was first found unreachable is kept
+ * in a small file next to the journal. The journal is compacted after entries were removed.
+ */
+public class UnreachableCommitsCollector {
+  private static final long GRACE_PERIOD = TimeUnit.DAYS.toMillis(14);
+  private static final long INTERVAL = TimeUnit.DAYS.toMillis(1);
+
+  private final Logger logger = Logger.getInstance(UnreachableCommitsCollector.class);
+  private final RefactoringsJournal journal;
+  private final JournaledMap map;
+  private final SourceChangeIndex changes;
+  private final Path file;
+
+  /**
+   * Creates a collector for the stored refactorings of a project.
+   *
+   * @param journal refactorings journal.
+   * @param map     journaled map.
+   * @param changes index of the mined commits by their source changes.
+   */
+  public UnreachableCommitsCollector(@NotNull RefactoringsJournal journal, @NotNull JournaledMap map,
+                                     @NotNull SourceChangeIndex changes) {
+    this.journal = journal;
+    this.map = map;
+    this.changes = changes;
+    this.file = journal.getFile().resolveSibling("unreachable");
+  }
+
+  /**
+   * Runs a collection unless one ran recently.
+   *
+   * @param repository repository the refactorings were mined from.
+   */
+  public void collectIfDue(@NotNull Repository repository) {
+    try {
+      if (Files.exists(file)
+          && System.currentTimeMillis() - Files.getLastModifiedTime(file).toMillis() < INTERVAL) {
+        return;
+      }
+      collect(repository);
+    } catch (IOException | RevWalkException e) {
+      logger.warn("Cannot collect the refactorings of unreachable commits", e);
+    }
+  }
+
+  /**
+   * Removes the entries of the commits that have been unreachable for longer than the grace period.
+   *
+   * @param repository repository the refactorings were mined from.
+   * @throws IOException if the repository cannot be walked.
+   */
+  public void collect(@NotNull Repository repository) throws IOException {
+    Set<String> unreachable = new HashSet<>(journal.getCommits());
+    unreachable.addAll(map.keySet());
+    if (unreachable.isEmpty() || !walkReachable(repository, unreachable)) {
+      return;
+    }
+    long now = System.currentTimeMillis();
+    Map<String, Long> since = readSince();
+    since.keySet().retainAll(unreachable);
+    List<String> expired = new ArrayList<>();
+    for (String commitId : unreachable) {
+      long time = since.computeIfAbsent(commitId, id -> now);
+      if (now - time >= GRACE_PERIOD) {
+        expired.add(commitId);
+      }
+    }
+    expired.forEach(map::remove);
+    changes.forget(expired);
+    since.keySet().removeAll(expired);
+    writeSince(since);
+    if (!expired.isEmpty()) {
+      journal.flush(map);
+      journal.compact(map);
+    }
+    logger.info("Removed the refactorings of " + expired.size() + " unreachable commits, "
+        + since.size() + " more are unreachable within the grace period");
+  }
+
+  /**
+   * Walks the commits reachable from any ref and removes them from the given set.
+   *
+   * @return false if reachability cannot be decided, in which case nothing should be removed.
+   */
+  private static boolean walkReachable(Repository repository, Set<String> commits) throws IOException {
+    if (new File(repository.getDirectory(), "shallow").exists()) {
+      // history beyond the shallow boundary is not walkable, but is not gone either
+      return false;
+    }
+    List<Ref> refs = new ArrayList<>(repository.getRefDatabase().getRefs());
+    Ref head = repository.exactRef(Constants.HEAD);
+    if (head != null) {
+      refs.add(head);
+    }
+    try (RevWalk walk = new RevWalk(repository)) {
+      walk.setRetainBody(false);
+      boolean started = false;
+      for (Ref ref : refs) {
+        ObjectId id = ref.getPeeledObjectId() != null ? ref.getPeeledObjectId() : ref.getObjectId();
+        if (id == null) {
+          continue;
+        }
+        RevObject object;
+        try {
+          object = walk.peel(walk.parseAny(id));
+        } catch (MissingObjectException e) {
+          continue;
+        }
+        if (object instanceof RevCommit) {
+          walk.markStart((RevCommit) object);
+          started = true;
+        }
+      }
+      if (!started) {
+        return false;
+      }
+      RevCommit commit;
+      while ((commit = walk.next()) != null) {
+        if (commits.remove(commit.getName()) && commits.isEmpty()) {
+          break;
+        }
+      }
+    }
+    return true;
+  }
+
+  private Map<String, Long> readSince() throws IOException {
+    Map<String, Long> since = new HashMap<>();
+    if (!Files.exists(file)) {
+      return since;
+    }
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] parts = line.split(" ");
+        if (parts.length == 2) {
+          try {
+            since.put(parts[0], Long.parseLong(parts[1]));
+          } catch (NumberFormatException e) {
+            // a damaged line only restarts the grace period of its commit
+          }
+        }
+      }
+    }
+    return since;
+  }
+
+  private void writeSince(Map<String, Long> since) throws IOException {
+    Files.createDirectories(file.getParent());
+    try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      for (Map.Entry<String, Long> entry : since.entrySet()) {
+        writer.write(entry.getKey() + " " + entry.getValue());
+        writer.newLine();
+      }
+    }
+  }
+}
@@ -36,18 +36,23 @@ import com.intellij.openapi.ui.WindowWrapper;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.Key;
 import com.intellij.openapi.util.Pair;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.openapi.vcs.FilePath;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.components.JBList;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.components.panels.Wrapper;
 import com.intellij.util.ui.components.BorderLayoutPanel;
+import com.intellij.vcsUtil.VcsUtil;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.research.refactorinsight.folding.RefactoringFolder;
 import org.jetbrains.research.refactorinsight.data.RefactoringInfo;
 import org.jetbrains.research.refactorinsight.data.diff.MoreSidedDiffRequestGenerator.MoreSidedRange;
 import org.jetbrains.research.refactorinsight.data.diff.ThreeSidedRange;
+import org.jetbrains.research.refactorinsight.services.ContentCache;
 
 import javax.swing.JList;
 import javax.swing.JPanel;
@@ -129,7 +134,7 @@ public class DiffWindow extends com.intellij.diff.DiffExtension {
         if (change.getAfterRevision() != null
             && change.getAfterRevision().getFile().getPath().contains(info.getRightPath())) {
           contentList.add(myDiffContentFactory
-                              .create(project, change.getAfterRevision().getContent(),
+                              .create(project, getContent(change.getAfterRevision(), info.getCommitId(), project),
                                       JavaClassFileType.INSTANCE));
           break;
         }
@@ -140,8 +145,9 @@ public class DiffWindow extends com.intellij.diff.DiffExtension {
               ? change.getAfterRevision() : change.getBeforeRevision();
           if (revision != null
               && revision.getFile().getPath().contains(fixPath(pathPair.first))) {
+            String commitId = pathPair.second ? info.getCommitId() : info.getParent();
             contentList.add(myDiffContentFactory
-                                .create(project, revision.getContent(),
+                                .create(project, getContent(revision, commitId, project),
                                         JavaClassFileType.INSTANCE));
             break;
           }
@@ -166,7 +172,7 @@ public class DiffWindow extends com.intellij.diff.DiffExtension {
         if (change.getBeforeRevision() != null) {
           if (change.getBeforeRevision().getFile().getPath().contains(info.getLeftPath())) {
             contents[0] = myDiffContentFactory.create(project,
-                                                      change.getBeforeRevision().getContent(),
+                                                      getContent(change.getBeforeRevision(), info.getParent(), project),
                                                       JavaClassFileType.INSTANCE);
           }
         }
@@ -174,13 +180,13 @@ public class DiffWindow extends com.intellij.diff.DiffExtension {
             && change.getAfterRevision() != null
             && change.getAfterRevision().getFile().getPath().contains(info.getMidPath())) {
           contents[1] = myDiffContentFactory.create(project,
-                                                    change.getAfterRevision().getContent(),
+                                                    getContent(change.getAfterRevision(), info.getCommitId(), project),
                                                     JavaClassFileType.INSTANCE);
         }
         if (change.getAfterRevision() != null
             && change.getAfterRevision().getFile().getPath().contains(info.getRightPath())) {
           contents[2] = myDiffContentFactory.create(project,
-                                                    change.getAfterRevision().getContent(),
+                                                    getContent(change.getAfterRevision(), info.getCommitId(), project),
                                                     JavaClassFileType.INSTANCE);
         }
       }
@@ -192,6 +198,24 @@ public class DiffWindow extends com.intellij.diff.DiffExtension {
     }
   }
 
+  /**
+   * Gets the content of a revision through the project content cache,
+   * which usually already holds the files read while the commit was mined.
+   * The file is keyed by its path relative to the repository root, as mining keys it,
+   * and not by the refactoring path that matched it.
+   */
+  private static String getContent(ContentRevision revision, String commitId, Project project)
+      throws VcsException {
+    FilePath file = revision.getFile();
+    VirtualFile root = VcsUtil.getVcsRootFor(project, file);
+    String path = root == null ? null : FileUtil.getRelativePath(root.getPath(), file.getPath(), '/');
+    if (path == null) {
+      path = file.getPath();
+    }
+    CharSequence content = ContentCache.getInstance(project).getOrLoad(commitId, path, revision::getContent);
+    return content == null ? null : content.toString();
+  }
+
   /**
    * IntelliJ Diff Extension.
    * This is needed to obtain the viewer object.
@@ -6,6 +6,7 @@ import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.ui.JBIntSpinner;
+import com.intellij.ui.components.JBCheckBox;
 import com.intellij.util.ui.FormBuilder;
 import git4idea.repo.GitRepository;
 import git4idea.repo.GitRepositoryManager;
@@ -29,6 +30,9 @@ public class SettingsComponent {
       new JBIntSpinner(100, 0, Integer.MAX_VALUE, 10);
   private final JBIntSpinner threads =
       new JBIntSpinner(8, 0, Integer.MAX_VALUE, 1);
+  private final JBIntSpinner contentCacheSize =
+      new JBIntSpinner(64, 0, Integer.MAX_VALUE, 16);
+  private final JBCheckBox gitNotes = new JBCheckBox(RefactorInsightBundle.message("label.git.notes"));
 
   /**
    * SettingsComponent constructor. Creates the setting panel.
@@ -67,8 +71,8 @@ public class SettingsComponent {
                 String content = VfsUtil.loadText(file);
                 content = content.split("value=\"", 2)[1];
                 content = content.substring(0, content.lastIndexOf('\"'));
-                MiningService.getInstance(project).getState().refactoringsMap =
-                    new RefactoringsMapConverter().fromString(content);
+                MiningService.getInstance(project)
+                    .replaceRefactorings(new RefactoringsMapConverter().fromString(content));
               } catch (Exception ex) {
                 Messages.showErrorDialog(RefactorInsightBundle.message("bad.file"),
                     RefactorInsightBundle.message("name"));
@@ -83,6 +87,9 @@ public class SettingsComponent {
         .addLabeledComponent(RefactorInsightBundle.message("label.max.history"), historyLimit, 1,
             false)
         .addLabeledComponent(RefactorInsightBundle.message("label.threads"), threads, 1, false)
+        .addLabeledComponent(RefactorInsightBundle.message("label.content.cache"), contentCacheSize, 1,
+            false)
+        .addComponent(gitNotes)
         .addComponent(clear)
         .addComponent(all)
         .addComponent(choose)
@@ -122,4 +129,20 @@ public class SettingsComponent {
   public void setThreads(int n) {
     this.threads.setNumber(n);
   }
+
+  public int getContentCacheSize() {
+    return contentCacheSize.getNumber();
+  }
+
+  public void setContentCacheSize(int megabytes) {
+    this.contentCacheSize.setNumber(megabytes);
+  }
+
+  public boolean isGitNotes() {
+    return gitNotes.isSelected();
+  }
+
+  public void setGitNotes(boolean enabled) {
+    this.gitNotes.setSelected(enabled);
+  }
 }
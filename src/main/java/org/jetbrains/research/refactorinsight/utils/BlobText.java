@@ -0,0 +1,98 @@
+package org.jetbrains.research.refactorinsight.utils;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.jgit.util.RawParseUtils;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Text of a file revision backed by the raw bytes of its blob.
+ * Pure ASCII content, which is the common case for source files, is read directly from the bytes,
+ * so no UTF-16 copy of the whole file is made and sub-sequences share the same array.
+ * Any other content is decoded lazily, the first time a character is requested.
+ */
+public final class BlobText implements CharSequence {
+  private final byte[] bytes;
+  private final int start;
+  private final int length;
+  private final boolean ascii;
+  private String decoded;
+
+  /**
+   * Wraps the bytes of a blob. The array must not be modified afterwards.
+   *
+   * @param bytes raw content of the blob.
+   */
+  public BlobText(@NotNull byte[] bytes) {
+    this(bytes, 0, bytes.length, isAscii(bytes));
+  }
+
+  private BlobText(byte[] bytes, int start, int length, boolean ascii) {
+    this.bytes = bytes;
+    this.start = start;
+    this.length = length;
+    this.ascii = ascii;
+  }
+
+  private static boolean isAscii(byte[] bytes) {
+    for (byte b : bytes) {
+      if (b < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private String decoded() {
+    if (decoded == null) {
+      decoded = RawParseUtils.decode(bytes, start, start + length);
+    }
+    return decoded;
+  }
+
+  @Override
+  public int length() {
+    return ascii ? length : decoded().length();
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (!ascii) {
+      return decoded().charAt(index);
+    }
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of " + length);
+    }
+    return (char) bytes[start + index];
+  }
+
+  @NotNull
+  @Override
+  public CharSequence subSequence(int from, int to) {
+    if (!ascii) {
+      return decoded().subSequence(from, to);
+    }
+    if (from < 0 || to > length || from > to) {
+      throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") out of " + length);
+    }
+    return new BlobText(bytes, start + from, to - from, true);
+  }
+
+  /**
+   * Returns the number of bytes of memory this text can retain.
+   * Content that is not ASCII is counted with its decoded copy even before it is decoded,
+   * so the size does not change over the lifetime of the text.
+   *
+   * @return retained size in bytes.
+   */
+  public long getMemorySize() {
+    // UTF-8 never decodes to more characters than it has bytes
+    return ascii ? bytes.length : 3L * bytes.length;
+  }
+
+  @NotNull
+  @Override
+  public String toString() {
+    return ascii ? new String(bytes, start, length, StandardCharsets.US_ASCII) : decoded();
+  }
+}
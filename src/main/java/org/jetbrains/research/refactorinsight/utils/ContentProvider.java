@@ -0,0 +1,38 @@
+package org.jetbrains.research.refactorinsight.utils;
+
+import java.io.IOException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Provides the content of files at given revisions.
+ */
+public interface ContentProvider {
+
+  /**
+   * Returns the content of a file at a revision.
+   *
+   * @param path     path of the file relative to the repository root.
+   * @param revision commit id of the revision.
+   * @return the file content, or null if the file does not exist at the revision.
+   * @throws IOException if the content cannot be read.
+   */
+  @Nullable
+  CharSequence getContent(@NotNull String path, @NotNull String revision) throws IOException;
+
+  /**
+   * Returns the line index of a file at a revision.
+   * Implementations may share the index between all the refactorings of a commit.
+   *
+   * @param path     path of the file relative to the repository root.
+   * @param revision commit id of the revision.
+   * @return the line index, or null if the file does not exist at the revision.
+   * @throws IOException if the content cannot be read.
+   */
+  @Nullable
+  default LineIndex getLineIndex(@NotNull String path, @NotNull String revision) throws IOException {
+    CharSequence content = getContent(path, revision);
+    return content == null ? null : new LineIndex(content);
+  }
+}
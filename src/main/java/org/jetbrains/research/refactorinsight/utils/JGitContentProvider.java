@@ -0,0 +1,92 @@
+package org.jetbrains.research.refactorinsight.utils;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.research.refactorinsight.services.ContentCache;
+
+/**
+ * Reads file contents directly from the object database of an open JGit repository, without spawning git processes.
+ * Contents are returned as {@link BlobText} views of the blob bytes rather than decoded strings.
+ * All reads go through one {@link ObjectReader}, and the root tree of every revision is resolved only once.
+ * Line indexes are built once per file and shared by all the refactorings corrected with this provider.
+ * Files too large to be sources, over 16 MB, are reported as missing.
+ * Not thread-safe: create one provider per thread, e.g. per mined commit, and close it afterwards.
+ */
+public class JGitContentProvider implements ContentProvider, AutoCloseable {
+  private static final int MAX_FILE_SIZE = 16 * 1024 * 1024;
+  private final ObjectReader reader;
+  private final RevWalk revWalk;
+  private final Map<String, RevTree> trees = new HashMap<>();
+  private final Map<String, LineIndex> indexes = new HashMap<>();
+  private final ContentCache cache;
+
+  /**
+   * Creates a provider for the repository.
+   *
+   * @param repository open repository.
+   * @param cache      cache of file contents to look files up in first, or null.
+   */
+  public JGitContentProvider(@NotNull Repository repository, @Nullable ContentCache cache) {
+    this.reader = repository.newObjectReader();
+    this.revWalk = new RevWalk(reader);
+    this.cache = cache;
+  }
+
+  @Nullable
+  @Override
+  public CharSequence getContent(@NotNull String path, @NotNull String revision) throws IOException {
+    return cache == null ? load(path, revision) : cache.getOrLoad(revision, path, () -> load(path, revision));
+  }
+
+  @Nullable
+  @Override
+  public LineIndex getLineIndex(@NotNull String path, @NotNull String revision) throws IOException {
+    String key = revision + ":" + path;
+    LineIndex index = indexes.get(key);
+    if (index == null && !indexes.containsKey(key)) {
+      CharSequence content = getContent(path, revision);
+      index = content == null ? null : new LineIndex(content);
+      indexes.put(key, index);
+    }
+    return index;
+  }
+
+  private CharSequence load(String path, String revision) throws IOException {
+    try (TreeWalk treeWalk = TreeWalk.forPath(reader, path, getTree(revision))) {
+      if (treeWalk == null) {
+        return null;
+      }
+      return new BlobText(reader.open(treeWalk.getObjectId(0), Constants.OBJ_BLOB).getCachedBytes(MAX_FILE_SIZE));
+    } catch (LargeObjectException e) {
+      // too large to be a source file worth correcting lines in: treated like a missing file
+      return null;
+    }
+  }
+
+  private RevTree getTree(String revision) throws IOException {
+    RevTree tree = trees.get(revision);
+    if (tree == null) {
+      tree = revWalk.parseCommit(ObjectId.fromString(revision)).getTree();
+      trees.put(revision, tree);
+    }
+    return tree;
+  }
+
+  @Override
+  public void close() {
+    revWalk.close();
+    reader.close();
+  }
+}
@@ -0,0 +1,117 @@
+package org.jetbrains.research.refactorinsight.utils;
+
+import java.util.Arrays;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Index of the line starts of a file content, built once and shared by all the line markings computed on it.
+ * Lines are separated by "\r\n", "\r" or "\n", and trailing empty lines are ignored,
+ * exactly as when the text is split with {@code text.split("\r\n|\r|\n")}.
+ * Offsets count every line separator as a single character, as in the documents of the diff windows.
+ */
+public class LineIndex {
+  private final CharSequence text;
+  private final int[] starts;
+  private final int[] ends;
+  private final int[] offsets;
+  private final int count;
+
+  /**
+   * Builds the index of a text.
+   *
+   * @param text file content.
+   */
+  public LineIndex(@NotNull CharSequence text) {
+    this.text = text;
+    int length = text.length();
+    int[] lineStarts = new int[16];
+    int[] lineEnds = new int[16];
+    int n = 0;
+    int start = 0;
+    for (int i = 0; i <= length; i++) {
+      char c = i < length ? text.charAt(i) : '\n';
+      if (c != '\n' && c != '\r') {
+        continue;
+      }
+      if (n == lineStarts.length) {
+        lineStarts = Arrays.copyOf(lineStarts, 2 * n);
+        lineEnds = Arrays.copyOf(lineEnds, 2 * n);
+      }
+      lineStarts[n] = start;
+      lineEnds[n] = i;
+      n++;
+      if (c == '\r' && i + 1 < length && text.charAt(i + 1) == '\n') {
+        i++;
+      }
+      start = i + 1;
+    }
+    // String.split drops trailing empty lines, but keeps a single empty line for an empty text
+    while (n > 0 && lineStarts[n - 1] == lineEnds[n - 1]) {
+      n--;
+    }
+    if (length == 0) {
+      n = 1;
+    }
+    count = n;
+    starts = lineStarts;
+    ends = lineEnds;
+    offsets = new int[n + 1];
+    for (int i = 0; i < n; i++) {
+      offsets[i + 1] = offsets[i] + ends[i] - starts[i] + 1;
+    }
+  }
+
+  @NotNull
+  public CharSequence getText() {
+    return text;
+  }
+
+  /**
+   * Returns the number of lines.
+   *
+   * @return line count.
+   */
+  public int getLineCount() {
+    return count;
+  }
+
+  /**
+   * Returns a line without its separator.
+   *
+   * @param line zero-based line number.
+   * @return the line text.
+   */
+  @NotNull
+  public String getLine(int line) {
+    if (line < 0 || line >= count) {
+      throw new IndexOutOfBoundsException("Line " + line + " out of " + count);
+    }
+    return text.subSequence(starts[line], ends[line]).toString();
+  }
+
+  /**
+   * Calculates the offset of a position.
+   *
+   * @param line   one-based line number.
+   * @param column one-based column number.
+   * @return zero-based offset.
+   */
+  public int getOffset(int line, int column) {
+    if (count <= line - 2) {
+      line = count;
+    }
+    return offsets[Math.max(line - 1, 0)] + column - 1;
+  }
+
+  /**
+   * Finds the line that contains an offset.
+   *
+   * @param offset zero-based offset.
+   * @return zero-based line number.
+   */
+  public int getLineNumber(int offset) {
+    int index = Arrays.binarySearch(offsets, 0, count, offset);
+    return index >= 0 ? index : Math.max(-index - 2, 0);
+  }
+}
@@ -4,14 +4,9 @@ import com.intellij.openapi.Disposable;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.Disposer;
 import com.intellij.openapi.util.Pair;
-import com.intellij.openapi.vcs.FilePath;
-import com.intellij.openapi.vcs.LocalFilePath;
-import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.wm.ToolWindowManager;
 import com.intellij.vcs.log.impl.VcsLogManager;
 import com.intellij.vcs.log.impl.VcsProjectLog;
-import git4idea.GitContentRevision;
-import git4idea.GitRevisionNumber;
 import git4idea.repo.GitRepository;
 
 import java.io.BufferedReader;
@@ -88,8 +83,19 @@ public class Utils {
    * @return Start and ending column in an int[]
    */
   public static int[] findColumns(String text, String word, int line) {
-    String[] lines = text.split("\r\n|\r|\n");
-    int startColumn = lines[line].indexOf(word) + 1;
+    return findColumns(new LineIndex(text), word, line);
+  }
+
+  /**
+   * Finds the start and ending column of a word in an indexed text.
+   *
+   * @param text line index of the Java code
+   * @param word Word to look for.
+   * @param line In what line the word can be found.
+   * @return Start and ending column in an int[]
+   */
+  public static int[] findColumns(LineIndex text, String word, int line) {
+    int startColumn = text.getLine(line).indexOf(word) + 1;
     int endColumn = startColumn + word.length();
     return new int[]{startColumn, endColumn};
   }
@@ -103,8 +109,19 @@ public class Utils {
    * @return Start and ending column in int[]
    */
   public static int[] findColumnsBackwards(String text, String word, int line) {
-    String[] lines = text.split("\r\n|\r|\n");
-    int startColumn = lines[line].lastIndexOf(word) + 1;
+    return findColumnsBackwards(new LineIndex(text), word, line);
+  }
+
+  /**
+   * Similar to find columns but starts from the back of the line.
+   *
+   * @param text line index of the Java code
+   * @param word Word to look for
+   * @param line Line to look in
+   * @return Start and ending column in int[]
+   */
+  public static int[] findColumnsBackwards(LineIndex text, String word, int line) {
+    int startColumn = text.getLine(line).lastIndexOf(word) + 1;
     int endColumn = startColumn + word.length();
     return new int[]{startColumn, endColumn};
   }
@@ -117,26 +134,32 @@ public class Utils {
    * @return the actual line.
    */
   public static int skipJavadoc(String text, int line, boolean skipAnnotations) {
-    String[] lines = text.split("\r\n|\r|\n");
-    if (line >= lines.length) {
-      System.out.println(text);
+    return skipJavadoc(new LineIndex(text), line, skipAnnotations);
+  }
 
-      System.out.println(line);
-    }
-    if (lines[line].contains("/**")) {
-      for (int i = line + 1; i < lines.length; i++) {
-        if (lines[i].contains("*/")) {
-          return skipAnnotations ? skipAnnotations(lines, i + 1) : i + 1;
+  /**
+   * Skips javadoc for a method or class.
+   *
+   * @param text line index of the text to search in.
+   * @param line current line.
+   * @return the actual line.
+   */
+  public static int skipJavadoc(LineIndex text, int line, boolean skipAnnotations) {
+    if (text.getLine(line).contains("/**")) {
+      for (int i = line + 1; i < text.getLineCount(); i++) {
+        if (text.getLine(i).contains("*/")) {
+          return skipAnnotations ? skipAnnotations(text, i + 1) : i + 1;
         }
       }
     }
-    return skipAnnotations ? skipAnnotations(lines, line) : line;
+    return skipAnnotations ? skipAnnotations(text, line) : line;
   }
 
-  private static int skipAnnotations(String[] lines, int line) {
-    for (int i = line; i < lines.length; i++) {
-      if (lines[i].matches("((\\s|\\t)*@(\\w)*([(](.)*[)])*(\\s|\\t)*)+")
-          || lines[i].matches("(\\s|\\t)*")) {
+  private static int skipAnnotations(LineIndex text, int line) {
+    for (int i = line; i < text.getLineCount(); i++) {
+      String current = text.getLine(i);
+      if (current.matches("((\\s|\\t)*@(\\w)*([(](.)*[)])*(\\s|\\t)*)+")
+          || current.matches("(\\s|\\t)*")) {
         continue;
       } else {
         return i;
@@ -154,15 +177,7 @@ public class Utils {
    * @return offset
    */
   public static int getOffset(String text, int line, int column) {
-    int offset = 0;
-    String[] lines = text.split("\r\n|\r|\n");
-    if (lines.length <= line - 2) {
-      line = lines.length;
-    }
-    for (int i = 0; i < line - 1; i++) {
-      offset += lines[i].length() + 1;
-    }
-    return offset + column - 1;
+    return new LineIndex(text).getOffset(line, column);
   }
 
   /**
@@ -172,7 +187,7 @@ public class Utils {
    * @return length of the text
    */
   public static int getMaxLine(String text) {
-    return text.split("\r\n|\r|\n").length;
+    return new LineIndex(text).getLineCount();
   }
 
   /**
@@ -223,53 +238,45 @@ public class Utils {
   /**
    * Checks and corrects the ranges returned by RefactoringMiner.
    *
-   * @param info    refactoring info
-   * @param project the open project
+   * @param info     refactoring info
+   * @param contents provider of the file revisions of the commit
    * @return the corrected RefactoringInfo
    */
-  public static RefactoringInfo check(RefactoringInfo info, Project project) {
+  public static RefactoringInfo check(RefactoringInfo info, ContentProvider contents) {
     //check for refactorings without line markings
     // such as move source folder or rename package
     if (info.getLeftPath() == null || info.getRightPath() == null) {
       return info;
     }
 
-    FilePath beforePath = new LocalFilePath(
-        project.getBasePath() + "/"
-            + info.getLeftPath(), false);
-    FilePath midPath = !info.isThreeSided() ? null : new LocalFilePath(
-        project.getBasePath() + "/"
-            + info.getMidPath(), false);
-    FilePath afterPath = new LocalFilePath(
-        project.getBasePath() + "/"
-            + info.getRightPath(), false);
-    GitRevisionNumber afterNumber = new GitRevisionNumber(info.getCommitId());
-    GitRevisionNumber beforeNumber = new GitRevisionNumber(info.getParent());
-
-
     try {
-      String after = GitContentRevision
-          .createRevision(afterPath, afterNumber, project).getContent();
+      // a file that cannot be read, e.g. missing or too large, leaves the ranges as RefactoringMiner reported them
+      LineIndex after = contents.getLineIndex(info.getRightPath(), info.getCommitId());
+      if (after == null) {
+        return info;
+      }
 
       if (!info.isMoreSided()) {
-        String before = GitContentRevision
-            .createRevision(beforePath, beforeNumber, project).getContent();
-        String mid = !info.isThreeSided() ? null : GitContentRevision
-            .createRevision(midPath, afterNumber, project).getContent();
+        LineIndex before = contents.getLineIndex(info.getLeftPath(), info.getParent());
+        LineIndex mid = !info.isThreeSided() ? null : contents.getLineIndex(info.getMidPath(), info.getCommitId());
+        if (before == null || (info.isThreeSided() && mid == null)) {
+          return info;
+        }
 
         info.correctLines(before, mid, after);
       } else {
-        List<String> befores = new ArrayList<>();
+        List<LineIndex> befores = new ArrayList<>();
         for (Pair<String, Boolean> pathPair : info.getMoreSidedLeftPaths()) {
-          GitRevisionNumber number = pathPair.second ? afterNumber : beforeNumber;
-          FilePath filePath =
-              new LocalFilePath(project.getBasePath() + "/" + fixPath(pathPair.first), false);
-          befores.add(
-              GitContentRevision.createRevision(filePath, number, project).getContent());
+          String revision = pathPair.second ? info.getCommitId() : info.getParent();
+          LineIndex before = contents.getLineIndex(fixPath(pathPair.first), revision);
+          if (before == null) {
+            return info;
+          }
+          befores.add(before);
         }
         info.correctMoreSidedLines(befores, after);
       }
-    } catch (VcsException e) {
+    } catch (IOException e) {
       e.printStackTrace();
     }
 
@@ -283,11 +290,21 @@ public class Utils {
    * @return line of the package.
    */
   public static int findPackageLine(String text) {
-    String[] lines = text.split("\r\n|\r|\n");
-    for (int i = 0; i < lines.length; i++) {
-      if (lines[i].contains("package ")) {
+    return findPackageLine(new LineIndex(text));
+  }
+
+  /**
+   * Calculates the line of the package.
+   *
+   * @param text line index of the text to search in.
+   * @return line of the package.
+   */
+  public static int findPackageLine(LineIndex text) {
+    for (int i = 0; i < text.getLineCount(); i++) {
+      String line = text.getLine(i);
+      if (line.contains("package ")) {
         return i;
-      } else if (lines[i].matches("^[a-zA-Z0-9]*$")) {
+      } else if (line.matches("^[a-zA-Z0-9]*$")) {
         return -1;
       }
     }
@@ -0,0 +1,209 @@
+package org.jetbrains.research.refactorinsight.processors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.Repository;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MiningRequestsTest {
+  private static final String COMMIT = "0123456789012345678901234567890123456789";
+
+  private final Repository repository = new InMemoryRepository(new DfsRepositoryDescription("test"));
+  private FakeBackend backend;
+  private MiningRequests requests;
+
+  @Before
+  public void setUp() {
+    backend = new FakeBackend();
+    requests = new MiningRequests(backend);
+  }
+
+  private CompletableFuture<RefactoringEntry> request(MiningExecutor.Priority priority, AtomicBoolean wanted) {
+    return requests.request(COMMIT, null, 0, repository, priority, wanted::get);
+  }
+
+  @Test
+  public void storedCommitIsNotSubmitted() throws Exception {
+    RefactoringEntry stored = RefactoringEntry.createEmptyEntry(COMMIT, null, 0);
+    backend.store(stored);
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    assertSame(stored, result.get());
+    assertTrue(backend.queue.isEmpty());
+  }
+
+  @Test
+  public void concurrentRequestsShareOneRun() throws Exception {
+    CompletableFuture<RefactoringEntry> first = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    CompletableFuture<RefactoringEntry> second = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    assertTrue(requests.isInFlight(COMMIT));
+    backend.runAll();
+    assertEquals(1, backend.mined.get());
+    assertSame(backend.get(COMMIT), first.get());
+    assertSame(backend.get(COMMIT), second.get());
+    assertFalse(requests.isInFlight(COMMIT));
+  }
+
+  @Test
+  public void urgentRequestIsSubmittedAgainButMinedOnce() throws Exception {
+    request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    CompletableFuture<RefactoringEntry> urgent = request(MiningExecutor.Priority.INTERACTIVE, new AtomicBoolean(true));
+    assertEquals(2, backend.queue.size());
+    backend.runAll();
+    assertEquals(1, backend.mined.get());
+    assertSame(backend.get(COMMIT), urgent.get());
+  }
+
+  @Test
+  public void abandonedRunIsCanceledBeforeItStarts() {
+    AtomicBoolean wanted = new AtomicBoolean(true);
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.INTERACTIVE, wanted);
+    wanted.set(false);
+    result.cancel(false);
+    assertFalse(requests.isInFlight(COMMIT));
+    assertTrue(backend.queue.get(0).isCancelled());
+    backend.runAll();
+    assertEquals(0, backend.mined.get());
+  }
+
+  @Test
+  public void requestAfterAbandonStartsNewRun() throws Exception {
+    AtomicBoolean wanted = new AtomicBoolean(true);
+    CompletableFuture<RefactoringEntry> abandoned = request(MiningExecutor.Priority.BULK, wanted);
+    wanted.set(false);
+    abandoned.cancel(false);
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    backend.runAll();
+    assertEquals(1, backend.mined.get());
+    assertSame(backend.get(COMMIT), result.get());
+  }
+
+  @Test
+  public void abandonedRequestDoesNotAffectOtherRequesters() throws Exception {
+    AtomicBoolean wanted = new AtomicBoolean(true);
+    CompletableFuture<RefactoringEntry> canceled = request(MiningExecutor.Priority.INTERACTIVE, wanted);
+    CompletableFuture<RefactoringEntry> other = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    wanted.set(false);
+    canceled.cancel(false);
+    backend.runAll();
+    assertEquals(1, backend.mined.get());
+    assertSame(backend.get(COMMIT), other.get());
+  }
+
+  @Test
+  public void unwantedRunIsSkipped() throws Exception {
+    AtomicBoolean wanted = new AtomicBoolean(true);
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.BULK, wanted);
+    wanted.set(false);
+    backend.runAll();
+    assertEquals(0, backend.mined.get());
+    assertNull(result.get());
+  }
+
+  @Test
+  public void runUsesEntryStoredAfterRequest() throws Exception {
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    RefactoringEntry stored = RefactoringEntry.createEmptyEntry(COMMIT, null, 0);
+    backend.store(stored);
+    backend.runAll();
+    assertEquals(0, backend.mined.get());
+    assertSame(stored, result.get());
+  }
+
+  @Test
+  public void timeoutIsStored() throws Exception {
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    backend.timeouts.get(0).run();
+    assertTrue(result.get().timeout);
+    assertTrue(backend.get(COMMIT).timeout);
+  }
+
+  @Test
+  public void droppedRunCompletesRequests() throws Exception {
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    backend.drops.get(0).run();
+    assertNull(result.get());
+    assertFalse(requests.isInFlight(COMMIT));
+  }
+
+  @Test
+  public void runStillMinesWhileAnotherSubmissionIsQueued() throws Exception {
+    CompletableFuture<RefactoringEntry> result = request(MiningExecutor.Priority.BULK, new AtomicBoolean(true));
+    request(MiningExecutor.Priority.INTERACTIVE, new AtomicBoolean(true));
+    backend.drops.get(0).run();
+    assertFalse(result.isDone());
+    backend.runAll();
+    assertEquals(1, backend.mined.get());
+    assertSame(backend.get(COMMIT), result.get());
+  }
+
+  /**
+   * Stores the entries in a map, and runs the submitted tasks only when asked to.
+   */
+  private static final class FakeBackend implements MiningRequests.Backend {
+    private final Map<String, RefactoringEntry> entries = new ConcurrentHashMap<>();
+    private final List<FutureTask<?>> queue = new ArrayList<>();
+    private final List<Runnable> timeouts = new ArrayList<>();
+    private final List<Runnable> drops = new ArrayList<>();
+    private final AtomicInteger mined = new AtomicInteger();
+
+    void runAll() {
+      new ArrayList<>(queue).forEach(FutureTask::run);
+    }
+
+    @Nullable
+    @Override
+    public RefactoringEntry get(@NotNull String commitId) {
+      return entries.get(commitId);
+    }
+
+    @Override
+    public void store(@NotNull RefactoringEntry entry) {
+      entries.put(entry.getCommitId(), entry);
+    }
+
+    @Override
+    public void mine(@NotNull String commitId, @Nullable String parent, long timestamp,
+                     @NotNull Repository repository) {
+      mined.incrementAndGet();
+      store(RefactoringEntry.createEmptyEntry(commitId, parent, timestamp));
+    }
+
+    @NotNull
+    @Override
+    public Future<?> submit(@NotNull MiningExecutor.Priority priority, @NotNull Runnable task,
+                            @NotNull Runnable onTimeout, @NotNull Runnable onDropped) {
+      FutureTask<?> submission = new FutureTask<>(task, null);
+      queue.add(submission);
+      timeouts.add(onTimeout);
+      drops.add(() -> {
+        submission.cancel(false);
+        onDropped.run();
+      });
+      return submission;
+    }
+
+    @Override
+    public void demote(@NotNull Future<?> submission) {
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package org.jetbrains.research.refactorinsight.services;
 
+import static junit.framework.Assert.assertFalse;
 import static junit.framework.Assert.assertTrue;
 import static junit.framework.TestCase.assertEquals;
 import static org.jetbrains.research.refactorinsight.utils.StringUtils.*;
@@ -11,7 +12,9 @@ import org.jetbrains.research.refactorinsight.data.*;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -19,6 +22,9 @@ import org.jetbrains.research.refactorinsight.data.diff.MoreSidedDiffRequestGene
 import org.jetbrains.research.refactorinsight.data.diff.ThreeSidedDiffRequestGenerator;
 import org.jetbrains.research.refactorinsight.data.diff.TwoSidedDiffRequestGenerator;
 import org.jetbrains.research.refactorinsight.folding.FoldingDescriptor;
+import org.jetbrains.research.refactorinsight.storage.LegacyRefactoringsReader;
+import org.jetbrains.research.refactorinsight.storage.RefactoringsCodec;
+import org.jetbrains.research.refactorinsight.storage.SchemaMigrations;
 import org.junit.Test;
 
 public class ConverterTest {
@@ -64,6 +70,37 @@ public class ConverterTest {
     });
   }
 
+  @Test
+  public void legacyReaderSkipsCorruptEntries() {
+    String value = "1.0.5" + delimiter(MAP) + "cccc" + delimiter(MAP_ENTRY) + "bbbb"
+        + delimiter(ENTRY) + 1234 + delimiter(ENTRY) + "true" + delimiter(ENTRY)
+        + delimiter(MAP) + "dddd" + delimiter(MAP_ENTRY) + "garbage"
+        + delimiter(MAP) + "no entry"
+        + delimiter(MAP) + "bbbb" + delimiter(MAP_ENTRY) + "aaaa"
+        + delimiter(ENTRY) + 5678 + delimiter(ENTRY) + "false" + delimiter(ENTRY);
+    LegacyRefactoringsReader reader = new LegacyRefactoringsReader(value);
+    Map<String, RefactoringEntry> entries = new HashMap<>();
+    assertEquals("1.0.5", reader.getVersion());
+    assertEquals(2, reader.read(entries::put));
+    assertEquals(new HashSet<>(Arrays.asList("cccc", "bbbb")), entries.keySet());
+    assertEquals(5678, entries.get("bbbb").getTimeStamp());
+    assertEquals(2, reader.getSkipped().size());
+    assertEquals("dddd", reader.getSkipped().get(0));
+  }
+
+  @Test
+  public void legacyReaderReadsCommitIdsOfAnyVersion() {
+    String value = "0.9" + delimiter(MAP) + "cccc" + delimiter(MAP_ENTRY) + "unknown format"
+        + delimiter(MAP) + "no entry"
+        + delimiter(MAP) + "bbbb" + delimiter(MAP_ENTRY) + "aaaa";
+    LegacyRefactoringsReader reader = new LegacyRefactoringsReader(value);
+    List<String> commits = new ArrayList<>();
+    assertEquals("0.9", reader.getVersion());
+    assertEquals(2, reader.readCommitIds(commits::add));
+    assertEquals(Arrays.asList("cccc", "bbbb"), commits);
+    assertEquals(1, reader.getSkipped().size());
+  }
+
   @Test
   public void infoConverterTest() {
     //Test case 1
@@ -165,4 +202,84 @@ public class ConverterTest {
       assertEquals(k, v.toString());
     });
   }
+
+  @Test
+  public void codecTest() {
+    String twoSidedString = String.join(delimiter(INFO),
+        "54",
+        "nameBef", "nameAft", "elemBef", "elemAft", "detBef", "detAft",
+        "left/path.java", "mid/path.java", "left/path.java",
+        "1",
+        "", "t", "", "t",
+        String.join(delimiter(LIST),
+            String.join(delimiter(FRAG), "10", "12", "11", "14", "100", "120", "110", "140",
+                "101", "105", "111", "117"),
+            String.join(delimiter(FRAG), "3", "4", "3", "4", "30", "40", "30", "40", "")),
+        "", "1/2/3", "",
+        "Rename Method");
+    String threeSidedString = String.join(delimiter(INFO),
+        "45",
+        "nameBef", "nameAft", "elemBef", "elemAft", "detBef", "detAft",
+        "left/path.java", "mid/path.java", "right/path.java",
+        "1",
+        "t", "", "", "t",
+        String.join(delimiter(FRAG), "BOTH", "1", "2", "3", "5", "8", "13",
+            String.join(delimiter(RANGE), "0", "5"),
+            String.join(delimiter(RANGE), "2", "7", "9", "12"),
+            String.join(delimiter(RANGE), "4", "4")),
+        "4/5/6", "", "",
+        "");
+    String moreSidedString = String.join(delimiter(INFO),
+        "59",
+        "nameBef", "nameAft", "elemBef", "elemAft", "detBef", "detAft",
+        "left/path.java", "mid/path.java", "right/path.java",
+        "6",
+        "", "", "t", "t",
+        String.join(delimiter(RANGE), "1", "2", "3", "4", "5", "6", "0", "0", "extraction/left/path.java"),
+        "12/13/14", "", "15/16/17",
+        "");
+    RefactoringEntry entry = new RefactoringEntry("cccc", "bbbb", 1234)
+        .setRefactorings(new ArrayList<>(Arrays.asList(
+            RefactoringInfo.fromString(twoSidedString),
+            RefactoringInfo.fromString(threeSidedString),
+            RefactoringInfo.fromString(moreSidedString))));
+    entry.setTimeout(true);
+
+    RefactoringEntry decoded = RefactoringsCodec.decode(RefactoringsCodec.encode(entry), "cccc");
+    assertEquals(entry, decoded);
+    assertEquals(entry.toString(), decoded.toString());
+    assertEquals(twoSidedString, decoded.getRefactorings().get(0).toString());
+    assertEquals(threeSidedString, decoded.getRefactorings().get(1).toString());
+    assertEquals(moreSidedString, decoded.getRefactorings().get(2).toString());
+    assertTrue(decoded.timeout);
+    decoded.getRefactorings().forEach(info -> assertEquals(decoded, info.getEntry()));
+
+    RefactoringEntry empty = RefactoringEntry.createEmptyEntry("aaaa", "bbbb", 5678);
+    RefactoringEntry decodedEmpty = RefactoringsCodec.decode(RefactoringsCodec.encode(empty), "aaaa");
+    assertEquals(empty, decodedEmpty);
+    assertEquals(empty.toString(), decodedEmpty.toString());
+  }
+
+  @Test
+  public void migrationsCoverAllFormats() {
+    for (int format = 1; format <= RefactoringsCodec.FORMAT; format++) {
+      assertTrue(SchemaMigrations.canUpgrade(format));
+    }
+    assertFalse(SchemaMigrations.canUpgrade(0));
+    assertFalse(SchemaMigrations.canUpgrade(RefactoringsCodec.FORMAT + 1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void codecTruncatedTest() {
+    RefactoringEntry entry = new RefactoringEntry("cccc", "bbbb", 1234)
+        .setRefactorings(new ArrayList<>(Collections.singletonList(new RefactoringInfo()
+            .setType(RefactoringType.ADD_PARAMETER)
+            .setNameBefore("nameBef")
+            .setNameAfter("nameAft")
+            .setGroup(Group.METHOD)
+            .setRequestGenerator(new TwoSidedDiffRequestGenerator(Collections.singletonList(
+                new LineFragmentImpl(1, 2, 3, 4, 0, 0, 0, 0)))))));
+    byte[] bytes = RefactoringsCodec.encode(entry);
+    RefactoringsCodec.decode(Arrays.copyOf(bytes, bytes.length - 1), "cccc");
+  }
 }
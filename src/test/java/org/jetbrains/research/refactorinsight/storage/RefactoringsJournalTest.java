@@ -0,0 +1,227 @@
+package org.jetbrains.research.refactorinsight.storage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.intellij.diff.fragments.LineFragmentImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jetbrains.research.refactorinsight.adapters.RefactoringType;
+import org.jetbrains.research.refactorinsight.data.Group;
+import org.jetbrains.research.refactorinsight.data.RefactoringEntry;
+import org.jetbrains.research.refactorinsight.data.RefactoringInfo;
+import org.jetbrains.research.refactorinsight.data.diff.TwoSidedDiffRequestGenerator;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RefactoringsJournalTest {
+  private static final String FIRST = "1111111111111111111111111111111111111111";
+  private static final String SECOND = "2222222222222222222222222222222222222222";
+  private static final String THIRD = "3333333333333333333333333333333333333333";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+  private Path file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = folder.newFolder().toPath().resolve("refactorings.journal");
+  }
+
+  private static RefactoringEntry entry(String commitId, RefactoringType... types) {
+    List<RefactoringInfo> infos = new ArrayList<>();
+    for (RefactoringType type : types) {
+      infos.add(new RefactoringInfo()
+          .setType(type)
+          .setNameBefore("nameBef")
+          .setNameAfter("nameAft")
+          .setGroup(Group.METHOD)
+          .setRequestGenerator(new TwoSidedDiffRequestGenerator(Collections.singletonList(
+              new LineFragmentImpl(1, 2, 3, 4, 0, 0, 0, 0)))));
+    }
+    return new RefactoringEntry(commitId, "0000000000000000000000000000000000000000", 1234)
+        .setRefactorings(infos);
+  }
+
+  /**
+   * Writes the entries to a new journal, in this order.
+   */
+  private void write(RefactoringEntry... entries) {
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    for (RefactoringEntry entry : entries) {
+      map.put(entry.getCommitId(), entry);
+    }
+    journal.flush(map);
+  }
+
+  /**
+   * Returns where the record of a commit starts in the journal file.
+   */
+  private static int recordStart(byte[] bytes, String commitId) {
+    byte[] id = commitId.getBytes(StandardCharsets.UTF_8);
+    for (int i = 0; i + id.length <= bytes.length; i++) {
+      if (ByteBuffer.wrap(bytes, i, id.length).equals(ByteBuffer.wrap(id))) {
+        // marker, kind and the length of the commit id precede it
+        return i - Integer.BYTES - 1 - Short.BYTES;
+      }
+    }
+    throw new AssertionError("No record of " + commitId);
+  }
+
+  @Test
+  public void storedEntriesAreReadAfterLoading() {
+    write(entry(FIRST, RefactoringType.RENAME_METHOD), entry(SECOND));
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    assertEquals(entry(FIRST, RefactoringType.RENAME_METHOD), map.get(FIRST));
+    assertEquals(1, journal.getRefactoringCount(FIRST));
+    assertEquals(0, journal.getRefactoringCount(SECOND));
+    assertEquals(-1, journal.getRefactoringCount(THIRD));
+    assertTrue(journal.upgrade(map).isEmpty());
+  }
+
+  @Test
+  public void truncatedRecordIsMinedAgain() throws IOException {
+    write(entry(FIRST), entry(SECOND), entry(THIRD));
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    assertTrue(map.containsKey(FIRST));
+    assertTrue(map.containsKey(SECOND));
+    assertFalse(map.containsKey(THIRD));
+    assertEquals(Collections.singletonList(THIRD), journal.upgrade(map));
+  }
+
+  @Test
+  public void garbledRecordIsSkippedAndTheNextOneIsKept() throws IOException {
+    write(entry(FIRST), entry(SECOND), entry(THIRD));
+    byte[] bytes = Files.readAllBytes(file);
+    // the last byte of the second entry
+    bytes[recordStart(bytes, THIRD) - 1] ^= 0x5a;
+    Files.write(file, bytes);
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    assertEquals(entry(FIRST), map.get(FIRST));
+    assertNull(map.get(SECOND));
+    assertEquals(entry(THIRD), map.get(THIRD));
+    assertEquals(Collections.singletonList(SECOND), journal.upgrade(map));
+  }
+
+  @Test
+  public void readingResyncsAtTheNextMarker() throws IOException {
+    write(entry(FIRST), entry(SECOND), entry(THIRD));
+    byte[] bytes = Files.readAllBytes(file);
+    int second = recordStart(bytes, SECOND);
+    for (int i = second; i < second + Integer.BYTES; i++) {
+      bytes[i] = 0;
+    }
+    Files.write(file, bytes);
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    assertEquals(entry(FIRST), map.get(FIRST));
+    assertFalse(map.containsKey(SECOND));
+    assertEquals(entry(THIRD), map.get(THIRD));
+  }
+
+  @Test
+  public void recoveredJournalIsRewrittenWithoutTheDamage() throws IOException {
+    write(entry(FIRST), entry(SECOND), entry(THIRD));
+    byte[] bytes = Files.readAllBytes(file);
+    bytes[recordStart(bytes, THIRD) - 1] ^= 0x5a;
+    Files.write(file, bytes);
+    new RefactoringsJournal(file).load(new JournaledMap());
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    assertTrue(journal.upgrade(map).isEmpty());
+    assertEquals(entry(FIRST), map.get(FIRST));
+    assertEquals(entry(THIRD), map.get(THIRD));
+  }
+
+  @Test
+  public void compactionDoesNotFailOpenReaders() throws Exception {
+    write(entry(FIRST, RefactoringType.RENAME_METHOD), entry(SECOND), entry(THIRD));
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    byte[] expected = journal.readEncoded(FIRST);
+    AtomicBoolean done = new AtomicBoolean();
+    AtomicInteger failures = new AtomicInteger();
+    AtomicInteger reads = new AtomicInteger();
+    Thread reader = new Thread(() -> {
+      while (!done.get()) {
+        byte[] bytes = journal.readEncoded(FIRST);
+        if (bytes == null || !Arrays.equals(expected, bytes)) {
+          failures.incrementAndGet();
+        }
+        reads.incrementAndGet();
+      }
+    });
+    reader.start();
+    try {
+      for (int i = 0; i < 200; i++) {
+        journal.compact(map);
+      }
+    } finally {
+      done.set(true);
+      reader.join();
+    }
+    assertTrue(reads.get() > 0);
+    assertEquals(0, failures.get());
+    assertArrayEquals(expected, journal.readEncoded(FIRST));
+  }
+
+  @Test
+  public void upgradeMinesAgainOnlyTheOutdatedTypes() throws IOException {
+    write(entry(FIRST, RefactoringType.RENAME_METHOD),
+          entry(SECOND, RefactoringType.ADD_PARAMETER),
+          entry(THIRD));
+    // the entries were mined before the current detectors
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, SchemaMigrations.DETECTOR_VERSION - 1),
+                    Integer.BYTES + 1);
+    }
+    JournaledMap map = new JournaledMap();
+    RefactoringsJournal journal = new RefactoringsJournal(file);
+    journal.load(map);
+    List<String> outdated = journal.upgrade(map, detector -> detector < SchemaMigrations.DETECTOR_VERSION
+        ? EnumSet.of(RefactoringType.RENAME_METHOD) : EnumSet.noneOf(RefactoringType.class));
+    assertEquals(Collections.singletonList(FIRST), outdated);
+    assertFalse(map.containsKey(FIRST));
+    assertEquals(entry(SECOND, RefactoringType.ADD_PARAMETER), map.get(SECOND));
+    assertEquals(entry(THIRD), map.get(THIRD));
+
+    JournaledMap reloaded = new JournaledMap();
+    RefactoringsJournal upgraded = new RefactoringsJournal(file);
+    upgraded.load(reloaded);
+    assertFalse(reloaded.containsKey(FIRST));
+    assertTrue(upgraded.upgrade(reloaded, detector -> EnumSet.allOf(RefactoringType.class)).isEmpty());
+  }
+}
@@ -0,0 +1,85 @@
+package org.jetbrains.research.refactorinsight.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+
+public class LineIndexTest {
+
+  private static final String[] TEXTS = {
+      "",
+      "a",
+      "\n",
+      "a\n",
+      "\na",
+      "a\nb\n\n\n",
+      "package a;\r\n\r\nclass B {\r\n}\r\n",
+      "a\rb\r\nc\nd",
+      "a\r\n\r\n"
+  };
+
+  @Test
+  public void lineCountMatchesSplit() {
+    for (String text : TEXTS) {
+      assertEquals(text, text.split("\r\n|\r|\n").length, new LineIndex(text).getLineCount());
+    }
+  }
+
+  @Test
+  public void linesMatchSplit() {
+    for (String text : TEXTS) {
+      String[] lines = text.split("\r\n|\r|\n");
+      LineIndex index = new LineIndex(text);
+      for (int i = 0; i < lines.length; i++) {
+        assertEquals(text, lines[i], index.getLine(i));
+      }
+    }
+  }
+
+  @Test
+  public void offsetsCountSeparatorsAsOneCharacter() {
+    for (String text : TEXTS) {
+      String[] lines = text.split("\r\n|\r|\n");
+      LineIndex index = new LineIndex(text);
+      for (int line = 0; line <= lines.length + 3; line++) {
+        assertEquals(text, splitOffset(lines, line, 3), index.getOffset(line, 3));
+      }
+    }
+  }
+
+  @Test
+  public void blobTextMatchesString() {
+    for (String text : new String[] {"package a;\r\nclass B {}\n", "// \u00e9t\u00e9\nclass C {}\n"}) {
+      String[] lines = text.split("\r\n|\r|\n");
+      LineIndex index = new LineIndex(new BlobText(text.getBytes(StandardCharsets.UTF_8)));
+      assertEquals(lines.length, index.getLineCount());
+      for (int i = 0; i < lines.length; i++) {
+        assertEquals(lines[i], index.getLine(i));
+      }
+      assertEquals(text, index.getText().toString());
+    }
+  }
+
+  @Test
+  public void lineNumberOfOffset() {
+    LineIndex index = new LineIndex("ab\r\ncd\nef");
+    assertEquals(0, index.getLineNumber(0));
+    assertEquals(0, index.getLineNumber(2));
+    assertEquals(1, index.getLineNumber(3));
+    assertEquals(1, index.getLineNumber(5));
+    assertEquals(2, index.getLineNumber(6));
+    assertEquals(2, index.getLineNumber(42));
+  }
+
+  private static int splitOffset(String[] lines, int line, int column) {
+    if (lines.length <= line - 2) {
+      line = lines.length;
+    }
+    int offset = 0;
+    for (int i = 0; i < line - 1; i++) {
+      offset += lines[i].length() + 1;
+    }
+    return offset + column - 1;
+  }
+}